@@ -0,0 +1,69 @@
+package com.lwansbrough.RCTCamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base64 encoding of pictures captured to memory, against the JDK's encoder as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RCTCameraBase64Benchmark {
+    private static final int CHUNK_SIZE = 48 * 1024;
+
+    @Param({"1048576", "4194304", "8388608"})
+    public int size;
+
+    private final RCTCameraBase64Encoder _encoder = new RCTCameraBase64Encoder();
+    private byte[] _jpeg;
+    private byte[] _output;
+
+    @Setup
+    public void setUp() {
+        _jpeg = RCTCameraFakeBackend.createJpeg(4000, 3000, 0, size);
+        _output = new byte[RCTCameraBase64Encoder.encodedLength(_jpeg.length)];
+    }
+
+    /**
+     * The string resolved to JS.
+     */
+    @Benchmark
+    public String encode() {
+        return _encoder.encode(_jpeg);
+    }
+
+    /**
+     * Encoding alone, into a reused buffer.
+     */
+    @Benchmark
+    public byte[] encodeInto() {
+        RCTCameraBase64Encoder.encode(_jpeg, 0, _jpeg.length, _output);
+        return _output;
+    }
+
+    /**
+     * Chunks of a multiple of 3 bytes encode independently, as when streaming a picture in parts.
+     */
+    @Benchmark
+    public int encodeChunks() {
+        int length = 0;
+        for (int offset = 0; offset < _jpeg.length; offset += CHUNK_SIZE) {
+            length += _encoder.encode(_jpeg, offset, Math.min(CHUNK_SIZE, _jpeg.length - offset)).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public String jdk() {
+        return java.util.Base64.getEncoder().encodeToString(_jpeg);
+    }
+}
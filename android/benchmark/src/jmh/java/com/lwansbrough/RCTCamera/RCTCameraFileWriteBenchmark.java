@@ -0,0 +1,98 @@
+package com.lwansbrough.RCTCamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ways of writing a picture for the disk and temp targets: the channel write and rename the module uses,
+ * against writing the file in place with a plain or buffered stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RCTCameraFileWriteBenchmark {
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    @Param({"1048576", "4194304"})
+    public int size;
+
+    // whether the data is forced to storage before returning, as for the disk target
+    @Param({"false", "true"})
+    public boolean sync;
+
+    private File _directory;
+    private File _file;
+    private byte[] _jpeg;
+
+    @Setup
+    public void setUp() throws IOException {
+        _directory = File.createTempFile("RCTCameraBenchmark", "");
+        if (!_directory.delete() || !_directory.mkdir()) {
+            throw new IOException("could not create " + _directory.getPath());
+        }
+        _file = new File(_directory, "IMG_benchmark.jpg");
+        _jpeg = RCTCameraFakeBackend.createJpeg(4000, 3000, 0, size);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = _directory.listFiles();
+        if (null != files) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        _directory.delete();
+    }
+
+    @Benchmark
+    public void channelAndRename() throws IOException {
+        RCTCameraFileWriter.writeNow(_jpeg, _file, sync);
+    }
+
+    @Benchmark
+    public void streamInPlace() throws IOException {
+        FileOutputStream stream = new FileOutputStream(_file);
+        try {
+            stream.write(_jpeg);
+            if (sync) {
+                stream.getFD().sync();
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Writing in small chunks, as an encoder streaming its output would.
+     */
+    @Benchmark
+    public void bufferedChunks() throws IOException {
+        FileOutputStream stream = new FileOutputStream(_file);
+        try {
+            BufferedOutputStream buffered = new BufferedOutputStream(stream, 64 * 1024);
+            for (int offset = 0; offset < _jpeg.length; offset += CHUNK_SIZE) {
+                buffered.write(_jpeg, offset, Math.min(CHUNK_SIZE, _jpeg.length - offset));
+            }
+            buffered.flush();
+            if (sync) {
+                stream.getFD().sync();
+            }
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.lwansbrough.RCTCamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rotation math run for every capture and preview layout, cycling through every facing, sensor orientation
+ * and device orientation so none of them gets constant folded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RCTCameraRotationBenchmark {
+    private int _step = 0;
+
+    @Benchmark
+    public int captureRotation() {
+        int step = _step++;
+        return RCTCameraRotation.getCaptureRotation(step & 1, (step >> 1 & 3) * 90, step >> 3 & 3);
+    }
+
+    /**
+     * What a preview layout computes: the display orientation and the preview size as seen on screen.
+     */
+    @Benchmark
+    public int previewLayout() {
+        int step = _step++;
+        int orientation = RCTCameraRotation.getDisplayOrientation(step & 1, (step >> 1 & 3) * 90, step >> 3 & 3);
+        return RCTCameraRotation.isSideways(orientation) ? 1080 << 16 | 1920 : 1920 << 16 | 1080;
+    }
+}
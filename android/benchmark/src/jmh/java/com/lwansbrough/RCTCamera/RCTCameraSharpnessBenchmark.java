@@ -0,0 +1,43 @@
+package com.lwansbrough.RCTCamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring one preview frame of a sharpest frame capture, which has to keep up with 30fps previews.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RCTCameraSharpnessBenchmark {
+
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String previewSize;
+
+    private final RCTCameraSharpness _sharpness = new RCTCameraSharpness();
+    private byte[] _frame;
+    private int _width;
+    private int _height;
+
+    @Setup
+    public void setUp() {
+        RCTCameraCapabilities.Size size = RCTCameraParameters.parseSize(previewSize);
+        _width = size.width;
+        _height = size.height;
+        _frame = new byte[_width * _height * 3 / 2];
+        RCTCameraFakeBackend.fillFrame(_frame, _width, _height, 0);
+    }
+
+    @Benchmark
+    public double score() {
+        return _sharpness.score(_frame, _width, _height);
+    }
+}
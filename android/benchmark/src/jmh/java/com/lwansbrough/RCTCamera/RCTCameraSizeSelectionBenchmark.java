@@ -0,0 +1,111 @@
+package com.lwansbrough.RCTCamera;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preview and picture size selection, over the size lists real devices report.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RCTCameraSizeSelectionBenchmark {
+    private static final String NEXUS_5 = "preview-size=1920x1080;"
+            + "preview-size-values=1920x1080,1280x960,1280x720,1024x768,800x600,800x480,720x480,640x480,"
+            + "352x288,320x240,176x144;"
+            + "picture-size=3264x2448;picture-size-values=3264x2448,3264x1836,3200x2400,2592x1944,2048x1536,"
+            + "1920x1080,1600x1200,1280x960,1280x720,1024x768,800x600,800x480,720x480,640x480,352x288,320x240,"
+            + "176x144;"
+            + "focus-mode=auto;focus-mode-values=infinity,auto,macro,continuous-video,continuous-picture;"
+            + "flash-mode=off;flash-mode-values=off,auto,on,torch";
+    private static final String GALAXY_S5 = "preview-size=1920x1080;"
+            + "preview-size-values=1920x1080,1440x1080,1280x720,1056x864,960x720,800x480,720x480,640x480,"
+            + "352x288,320x240,176x144;"
+            + "picture-size=5312x2988;picture-size-values=5312x2988,3984x2988,3264x2448,3264x1836,2976x2976,"
+            + "2048x1536,2048x1152,1920x1080,1280x960,1280x720,640x480;"
+            + "video-size=1920x1080;video-size-values=3840x2160,1920x1080,1440x1080,1280x720,720x480,640x480,"
+            + "320x240,176x144;"
+            + "focus-mode=auto;focus-mode-values=auto,infinity,macro,fixed,continuous-video,continuous-picture;"
+            + "flash-mode=off;flash-mode-values=off,auto,on,torch,red-eye";
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    @Param({"nexus5", "galaxyS5"})
+    public String device;
+
+    private RCTCameraBackend.Device _device;
+    private RCTCameraParameters _parameters;
+    private RCTCameraCapabilities _capabilities;
+
+    @Setup
+    public void setUp() {
+        RCTCameraFakeBackend backend = new RCTCameraFakeBackend(DIRECT)
+                .setDefaultParameters(0, "nexus5".equals(device) ? NEXUS_5 : GALAXY_S5);
+        _device = backend.open(0);
+        _parameters = new RCTCameraParameters(_device);
+        _capabilities = RCTCameraCapabilities.fromParameters(_parameters);
+    }
+
+    @TearDown
+    public void tearDown() {
+        _device.release();
+    }
+
+    /**
+     * Parsing and sorting the supported sizes, done once per camera before anything below.
+     */
+    @Benchmark
+    public RCTCameraCapabilities capabilities() {
+        return RCTCameraCapabilities.fromParameters(_parameters);
+    }
+
+    /**
+     * Full screen portrait preview, in sensor orientation.
+     */
+    @Benchmark
+    public RCTCameraCapabilities.Size bestPreviewSize() {
+        return RCTCameraCapabilities.getBestSize(_capabilities.previewSizes, 1920, 1080);
+    }
+
+    /**
+     * The "high" capture quality.
+     */
+    @Benchmark
+    public RCTCameraCapabilities.Size bestPictureSize() {
+        return RCTCameraCapabilities.getBestSize(_capabilities.pictureSizes, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * The "low" capture quality.
+     */
+    @Benchmark
+    public RCTCameraCapabilities.Size smallestPictureSize() {
+        return RCTCameraCapabilities.getSmallestSize(_capabilities.pictureSizes);
+    }
+
+    @Benchmark
+    public RCTCameraCapabilities.Size previewMatchingView() {
+        return RCTCameraPreviewSizePolicy.select(_capabilities.previewSizes, RCTCameraPreviewSizePolicy.POLICY_MATCH_VIEW,
+                1280, 720, true, 4f / 3, 0);
+    }
+
+    @Benchmark
+    public RCTCameraCapabilities.Size previewMatchingCapture() {
+        return RCTCameraPreviewSizePolicy.select(_capabilities.previewSizes,
+                RCTCameraPreviewSizePolicy.POLICY_MATCH_CAPTURE_ASPECT, 1280, 720, false, 4f / 3, 1280 * 960);
+    }
+}
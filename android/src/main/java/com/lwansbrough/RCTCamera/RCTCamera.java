@@ -4,45 +4,295 @@
 
 package com.lwansbrough.RCTCamera;
 
+import android.content.Context;
+import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
+import android.media.CamcorderProfile;
+import android.os.SystemClock;
 
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class RCTCamera {
 
-    private static final RCTCamera ourInstance = new RCTCamera();
+    public static final int DEFAULT_KEEP_ALIVE = 1000;
+
+    private static RCTCamera ourInstance;
+    private final Context _context;
+    private final RCTCameraBackend _backend;
     private final HashMap<Integer, CameraInfoWrapper> _cameraInfos;
     private final HashMap<Integer, Integer> _cameraTypeToIndex;
-    private final Map<Number, Camera> _cameras;
+    private final Map<Number, RCTCameraBackend.Device> _cameras;
+    private final Map<Number, RCTCameraParameters> _parameters;
+    // configuration of released cameras, restored when they are opened again
+    private final Map<Number, String> _savedParameters;
+    private final List<Runnable> _readyCallbacks = new ArrayList<>();
+    private volatile boolean _ready = false;
     private int _orientation = -1;
     private int _actualDeviceOrientation = 0;
+    private volatile int _captureMode = RCTCameraModule.RCT_CAMERA_CAPTURE_MODE_STILL;
+    private volatile boolean _captureAudio = true;
+    private volatile int _keepAlive = DEFAULT_KEEP_ALIVE;
+    // preview size selection, touched on the camera thread only
+    private int _previewSizePolicy = RCTCameraPreviewSizePolicy.POLICY_MATCH_VIEW;
+    private long _maxPreviewPixels = 0;
+    private int _viewWidth = 0;
+    private int _viewHeight = 0;
+    private boolean _viewFill = false;
+
+    // startup timings, in milliseconds
+    private final long _createdAt;
+    private long _cameraInfoTime = -1;
+    private long _capabilitiesLoadTime = -1;
+    private long _readyTime = -1;
+    private long _firstOpenTime = -1;
+
+    // lease counters
+    private int _leases = 0;
+    private int _sharedLeases = 0;
+    private int _keepAliveReuses = 0;
+    private int _handovers = 0;
+    private int _opens = 0;
+    private int _closes = 0;
 
     public static RCTCamera getInstance() {
         return ourInstance;
     }
 
-    public Camera acquireCameraInstance(int type) {
+    public static void createInstance(Context context) {
+        createInstance(context, new RCTCameraCamera1Backend());
+    }
+
+    public static synchronized void createInstance(Context context, RCTCameraBackend backend) {
+        if (null == ourInstance) {
+            ourInstance = new RCTCamera(context.getApplicationContext(), backend);
+        }
+    }
+
+    /**
+     * Whether camera metadata and persisted capabilities have been loaded.
+     */
+    public boolean isReady() {
+        return _ready;
+    }
+
+    /**
+     * Run the callback once the background initialization has finished, immediately if it already has.
+     * Callbacks registered before that run on the camera thread and must not block.
+     */
+    public void whenReady(Runnable callback) {
+        synchronized (_readyCallbacks) {
+            if (!_ready) {
+                _readyCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    public long getCameraInfoTime() {
+        return _cameraInfoTime;
+    }
+
+    public long getCapabilitiesLoadTime() {
+        return _capabilitiesLoadTime;
+    }
+
+    public long getReadyTime() {
+        return _readyTime;
+    }
+
+    public long getFirstOpenTime() {
+        return _firstOpenTime;
+    }
+
+    /**
+     * Lease the camera of the given type, opening it unless it is already open. Cameras kept alive for another
+     * type are closed first, most devices can't have two open at once. Must be called on the camera thread.
+     *
+     * @return null if the camera can't be opened
+     */
+    public Lease leaseCamera(int type) {
+        CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
+        if (null == cameraInfo) {
+            return null;
+        }
+        boolean open = null != _cameras.get(type);
+        if (!open) {
+            closeIdleCameras();
+        }
+        RCTCameraBackend.Device camera = openCamera(type);
+        if (null == camera) {
+            return null;
+        }
+        // a camera kept open may have missed a rotation applied while another one was shown
+        if (open && cameraInfo.layoutOrientation != _actualDeviceOrientation) {
+            adjustPreviewLayout(type, false);
+        }
+        synchronized (this) {
+            _leases++;
+            if (open && cameraInfo.leases == 0) {
+                _keepAliveReuses++;
+            } else if (open) {
+                _sharedLeases++;
+            }
+        }
+        cameraInfo.leases++;
+        // a close scheduled after the last lease was released no longer applies
+        cameraInfo.closeGeneration++;
+        return new Lease(type, camera);
+    }
+
+    /**
+     * Close the cameras no lease holds any more right away, instead of once their keep-alive runs out.
+     * Must be called on the camera thread.
+     */
+    public void closeIdleCameras() {
+        for (Number type : new ArrayList<>(_cameras.keySet())) {
+            if (_cameraInfos.get(type.intValue()).leases == 0) {
+                closeCamera(type.intValue());
+            }
+        }
+    }
+
+    /**
+     * How long a camera stays open after its last lease is released, so a view showing up right after
+     * another one went away, e.g. during a navigation transition, gets it without reopening it.
+     */
+    public void setKeepAlive(int keepAlive) {
+        _keepAlive = keepAlive;
+    }
+
+    public synchronized WritableMap getLeaseStats() {
+        WritableMap stats = new WritableNativeMap();
+        stats.putInt("leases", _leases);
+        stats.putInt("sharedLeases", _sharedLeases);
+        stats.putInt("keepAliveReuses", _keepAliveReuses);
+        stats.putInt("handovers", _handovers);
+        stats.putInt("opens", _opens);
+        stats.putInt("closes", _closes);
+        stats.putInt("keepAliveMs", _keepAlive);
+        return stats;
+    }
+
+    private RCTCameraBackend.Device openCamera(int type) {
         if (null == _cameras.get(type) && null != _cameraTypeToIndex.get(type)) {
             try {
-                Camera camera = Camera.open(_cameraTypeToIndex.get(type));
+                long openStartedAt = SystemClock.elapsedRealtime();
+                RCTCameraBackend.Device camera = _backend.open(_cameraTypeToIndex.get(type));
                 _cameras.put(type, camera);
-                adjustPreviewLayout(type);
+                RCTCameraParameters parameters = new RCTCameraParameters(camera);
+                String savedParameters = _savedParameters.get(type);
+                if (null != savedParameters) {
+                    parameters.restore(savedParameters);
+                }
+                _parameters.put(type, parameters);
+                CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
+                if (null == cameraInfo.capabilities) {
+                    cameraInfo.capabilities = RCTCameraCapabilities.fromParameters(parameters);
+                    cameraInfo.capabilities.save(_context, cameraInfo.index);
+                }
+                // the preview isn't running yet, so this is the time to pick its size
+                adjustPreviewLayout(type, true);
+                if (-1 == _firstOpenTime) {
+                    _firstOpenTime = SystemClock.elapsedRealtime() - openStartedAt;
+                }
+                synchronized (this) {
+                    _opens++;
+                }
             } catch (Exception e) {
-                System.console().printf("acquireCameraInstance: %s", e.getLocalizedMessage());
+                System.console().printf("openCamera: %s", e.getLocalizedMessage());
             }
         }
         return _cameras.get(type);
     }
 
-    public void releaseCameraInstance(int type) {
-        if (null != _cameras.get(type)) {
-            _cameras.get(type).release();
-            _cameras.remove(type);
+    private void releaseLease(final int type) {
+        final CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
+        cameraInfo.leases--;
+        if (cameraInfo.leases > 0) {
+            return;
+        }
+        final int generation = ++cameraInfo.closeGeneration;
+        int keepAlive = _keepAlive;
+        if (keepAlive <= 0) {
+            closeCamera(type);
+            return;
+        }
+        RCTCameraExecutor.getInstance().executeDelayed(RCTCameraExecutor.COMMAND_RELEASE, new Runnable() {
+            @Override
+            public void run() {
+                if (cameraInfo.closeGeneration == generation && cameraInfo.leases == 0) {
+                    closeCamera(type);
+                }
+            }
+        }, keepAlive);
+    }
+
+    private void closeCamera(int type) {
+        RCTCameraBackend.Device camera = _cameras.remove(type);
+        if (null == camera) {
+            return;
+        }
+        CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
+        cameraInfo.previewOwner = null;
+        cameraInfo.closeGeneration++;
+        _savedParameters.put(type, _parameters.remove(type).save());
+        RCTCameraVideoRecorder.getInstance().stop(camera.getCamera());
+        RCTCameraFrameDispatcher.getInstance().detach(camera);
+        abortPicture(cameraInfo);
+        camera.release();
+        synchronized (this) {
+            _closes++;
         }
     }
 
+    /**
+     * Cached parameters of an open camera, or null if the camera is not open.
+     */
+    public RCTCameraParameters getParameters(int type) {
+        return _parameters.get(type);
+    }
+
+    /**
+     * Apply the parameter changes staged by the setters below in a single setParameters call.
+     */
+    public void commitParameters(int type) {
+        RCTCameraParameters parameters = _parameters.get(type);
+        if (null != parameters) {
+            parameters.commit();
+        }
+    }
+
+    /**
+     * Capability snapshot of the camera, or null if it has never been probed on this device build.
+     */
+    public RCTCameraCapabilities getCapabilities(int type) {
+        CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
+        if (null == cameraInfo) {
+            return null;
+        }
+        return cameraInfo.capabilities;
+    }
+
+    /**
+     * Clockwise rotation, in degrees, of the camera image for the current display orientation.
+     */
+    public int getRotation(int type) {
+        CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
+        if (null == cameraInfo) {
+            return 0;
+        }
+        return cameraInfo.rotation;
+    }
+
     public int getPreviewWidth(int type) {
         CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
         if (null == cameraInfo) {
@@ -59,77 +309,81 @@ public class RCTCamera {
         return cameraInfo.previewHeight;
     }
 
-    public Camera.Size getBestPreviewSize(int type, int width, int height)
+    public RCTCameraCapabilities.Size getBestPreviewSize(int type, int width, int height)
     {
-        Camera camera = _cameras.get(type);
-        Camera.Size result = null;
-        if(camera == null) {
+        RCTCameraCapabilities capabilities = getCapabilities(type);
+        if (capabilities == null) {
             return null;
         }
-        Camera.Parameters params = camera.getParameters();
-        for (Camera.Size size : params.getSupportedPreviewSizes()) {
-            if (size.width <= width && size.height <= height) {
-                if (result == null) {
-                    result = size;
-                } else {
-                    int resultArea = result.width * result.height;
-                    int newArea = size.width * size.height;
-
-                    if (newArea > resultArea) {
-                        result = size;
-                    }
-                }
-            }
-        }
-        return result;
+        return RCTCameraCapabilities.getBestSize(capabilities.previewSizes, width, height);
     }
 
-    public Camera.Size getBestPictureSize(int type, int width, int height)
+    public RCTCameraCapabilities.Size getBestPictureSize(int type, int width, int height)
     {
-        Camera camera = _cameras.get(type);
-        Camera.Size result = null;
-        if(camera == null) {
+        RCTCameraCapabilities capabilities = getCapabilities(type);
+        if (capabilities == null) {
             return null;
         }
-        Camera.Parameters params = camera.getParameters();
-        for (Camera.Size size : params.getSupportedPictureSizes()) {
-            if (size.width <= width && size.height <= height) {
-                if (result == null) {
-                    result = size;
-                } else {
-                    int resultArea = result.width * result.height;
-                    int newArea = size.width * size.height;
-
-                    if (newArea > resultArea) {
-                        result = size;
-                    }
-                }
-            }
-        }
-        return result;
+        return RCTCameraCapabilities.getBestSize(capabilities.pictureSizes, width, height);
     }
 
-    public Camera.Size getSmallestPictureSize(int type)
+    public RCTCameraCapabilities.Size getSmallestPictureSize(int type)
     {
-        Camera camera = _cameras.get(type);
-        Camera.Size result = null;
-        if(camera == null) {
+        RCTCameraCapabilities capabilities = getCapabilities(type);
+        if (capabilities == null) {
             return null;
         }
-        Camera.Parameters params = camera.getParameters();
-        for (Camera.Size size : params.getSupportedPictureSizes()) {
-            if (result == null) {
-                result = size;
-            } else {
-                int resultArea = result.width * result.height;
-                int newArea = size.width * size.height;
+        return RCTCameraCapabilities.getSmallestSize(capabilities.pictureSizes);
+    }
 
-                if (newArea < resultArea) {
-                    result = size;
-                }
+    /**
+     * Index of the camera of the given type, as used by RCTCameraBackend.open and CamcorderProfile, or -1 if there is none.
+     */
+    public int getCameraIndex(int type) {
+        Integer index = _cameraTypeToIndex.get(type);
+        return null == index ? -1 : index;
+    }
+
+    public int getCaptureMode() {
+        return _captureMode;
+    }
+
+    public boolean getCaptureAudio() {
+        return _captureAudio;
+    }
+
+    public void setCaptureAudio(boolean captureAudio) {
+        _captureAudio = captureAudio;
+    }
+
+    /**
+     * Recording profile for the given quality: the best CamcorderProfile at that quality whose frame size
+     * the camera can record, rather than whatever QUALITY_HIGH happens to map to.
+     */
+    public CamcorderProfile getVideoProfile(int type, String captureQuality) {
+        int index = getCameraIndex(type);
+        int[] qualities;
+        switch (captureQuality) {
+            case "low":
+                qualities = new int[]{CamcorderProfile.QUALITY_QVGA, CamcorderProfile.QUALITY_CIF, CamcorderProfile.QUALITY_480P};
+                break;
+            case "medium":
+                qualities = new int[]{CamcorderProfile.QUALITY_720P, CamcorderProfile.QUALITY_480P, CamcorderProfile.QUALITY_CIF};
+                break;
+            default:
+                qualities = new int[]{CamcorderProfile.QUALITY_2160P, CamcorderProfile.QUALITY_1080P, CamcorderProfile.QUALITY_720P, CamcorderProfile.QUALITY_480P};
+        }
+        RCTCameraCapabilities capabilities = getCapabilities(type);
+        for (int quality : qualities) {
+            if (!CamcorderProfile.hasProfile(index, quality)) {
+                continue;
+            }
+            CamcorderProfile profile = CamcorderProfile.get(index, quality);
+            if (null == capabilities || RCTCameraCapabilities.containsSize(capabilities.videoSizes, profile.videoFrameWidth, profile.videoFrameHeight)) {
+                return profile;
             }
         }
-        return result;
+        return CamcorderProfile.get(index, "low".equals(captureQuality) ? CamcorderProfile.QUALITY_LOW : CamcorderProfile.QUALITY_HIGH);
     }
 
     public int getOrientation() {
@@ -141,31 +395,76 @@ public class RCTCamera {
             return;
         }
         _orientation = orientation;
-        adjustPreviewLayout(RCTCameraModule.RCT_CAMERA_TYPE_FRONT);
-        adjustPreviewLayout(RCTCameraModule.RCT_CAMERA_TYPE_BACK);
+        adjustPreviewLayout(RCTCameraModule.RCT_CAMERA_TYPE_FRONT, false);
+        adjustPreviewLayout(RCTCameraModule.RCT_CAMERA_TYPE_BACK, false);
     }
 
-    public void setActualDeviceOrientation(int actualDeviceOrientation) {
+    /**
+     * Adjust the layout of the given camera to the new display rotation. Other cameras pick it up when leased.
+     */
+    public void setActualDeviceOrientation(int type, int actualDeviceOrientation) {
+        if (_actualDeviceOrientation == actualDeviceOrientation) {
+            return;
+        }
         _actualDeviceOrientation = actualDeviceOrientation;
-        adjustPreviewLayout(RCTCameraModule.RCT_CAMERA_TYPE_FRONT);
-        adjustPreviewLayout(RCTCameraModule.RCT_CAMERA_TYPE_BACK);
+        adjustPreviewLayout(type, false);
+    }
+
+    // the setters below only stage their change, call commitParameters() to apply them
+
+    /**
+     * Size of the view showing the preview, in display orientation, which the preview size is picked for.
+     *
+     * @param fill whether the preview covers the view, as opposed to fitting inside it
+     * @return true if the preview size of the open camera changed, the preview must be restarted to apply it
+     */
+    public boolean setViewSize(int type, int width, int height, boolean fill) {
+        _viewWidth = width;
+        _viewHeight = height;
+        _viewFill = fill;
+        return updatePreviewSize(type);
+    }
+
+    /**
+     * @param maxMegapixels largest preview allowed, 0 for no limit
+     * @return true if the preview size of the open camera changed, the preview must be restarted to apply it
+     */
+    public boolean setPreviewSizePolicy(int type, int policy, double maxMegapixels) {
+        _previewSizePolicy = policy;
+        _maxPreviewPixels = (long) (maxMegapixels * 1000000);
+        return updatePreviewSize(type);
+    }
+
+    public void setCaptureMode(int cameraType, int captureMode) {
+        _captureMode = captureMode;
+        RCTCameraParameters parameters = _parameters.get(cameraType);
+        if (null == parameters) {
+            return;
+        }
+
+        boolean video = captureMode == RCTCameraModule.RCT_CAMERA_CAPTURE_MODE_VIDEO
+                || captureMode == RCTCameraModule.RCT_CAMERA_CAPTURE_MODE_PRE_ROLL;
+        String focusMode = video ? Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO : Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE;
+        if (getCapabilities(cameraType).hasFocusMode(focusMode)) {
+            parameters.setFocusMode(focusMode);
+        }
+        // lets the HAL pick a video friendly preview setup, which makes starting a recording faster
+        parameters.setRecordingHint(video);
     }
 
     public void setCaptureQuality(int cameraType, String captureQuality) {
-        Camera camera = _cameras.get(cameraType);
-        if (null == camera) {
+        RCTCameraParameters parameters = _parameters.get(cameraType);
+        if (null == parameters) {
             return;
         }
 
-        Camera.Parameters parameters = camera.getParameters();
-        Camera.Size pictureSize = null;
+        RCTCameraCapabilities.Size pictureSize = null;
         switch (captureQuality) {
             case "low":
                 pictureSize = getSmallestPictureSize(cameraType); // select the lowest res
                 break;
             case "medium":
-                List<Camera.Size> sizes = parameters.getSupportedPictureSizes();
-                pictureSize = sizes.get(sizes.size() / 2);
+                pictureSize = RCTCameraCapabilities.getMedianSize(getCapabilities(cameraType).pictureSizes);
                 break;
             case "high":
                 pictureSize = getBestPictureSize(cameraType, Integer.MAX_VALUE, Integer.MAX_VALUE); // select the highest res
@@ -174,17 +473,15 @@ public class RCTCamera {
 
         if (pictureSize != null) {
             parameters.setPictureSize(pictureSize.width, pictureSize.height);
-            camera.setParameters(parameters);
         }
     }
 
     public void setTorchMode(int cameraType, int torchMode) {
-        Camera camera = _cameras.get(cameraType);
-        if (null == camera) {
+        RCTCameraParameters parameters = _parameters.get(cameraType);
+        if (null == parameters) {
             return;
         }
 
-        Camera.Parameters parameters = camera.getParameters();
         String value = parameters.getFlashMode();
         switch (torchMode) {
             case RCTCameraModule.RCT_CAMERA_TORCH_MODE_ON:
@@ -195,20 +492,17 @@ public class RCTCamera {
                 break;
         }
 
-        List<String> flashModes = parameters.getSupportedFlashModes();
-        if (flashModes != null && flashModes.contains(value)) {
+        if (getCapabilities(cameraType).hasFlashMode(value)) {
             parameters.setFlashMode(value);
-            camera.setParameters(parameters);
         }
     }
 
     public void setFlashMode(int cameraType, int flashMode) {
-        Camera camera = _cameras.get(cameraType);
-        if (null == camera) {
+        RCTCameraParameters parameters = _parameters.get(cameraType);
+        if (null == parameters) {
             return;
         }
 
-        Camera.Parameters parameters = camera.getParameters();
         String value = parameters.getFlashMode();
         switch (flashMode) {
             case RCTCameraModule.RCT_CAMERA_FLASH_MODE_AUTO:
@@ -221,116 +515,315 @@ public class RCTCamera {
                 value = Camera.Parameters.FLASH_MODE_OFF;
                 break;
         }
-        List<String> flashModes = parameters.getSupportedFlashModes();
-        if (flashModes != null && flashModes.contains(value)) {
+        if (getCapabilities(cameraType).hasFlashMode(value)) {
             parameters.setFlashMode(value);
-            camera.setParameters(parameters);
         }
     }
 
     public void adjustCameraRotationToDeviceOrientation(int type, int deviceOrientation)
     {
-        Camera camera = _cameras.get(type);
-        if (null == camera) {
+        RCTCameraParameters parameters = _parameters.get(type);
+        if (null == parameters) {
             return;
         }
 
         CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
-        int rotation;
-        int orientation = cameraInfo.info.orientation;
-        if (cameraInfo.info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            rotation = (orientation + deviceOrientation * 90) % 360;
-        } else {
-            rotation = (orientation - deviceOrientation * 90 + 360) % 360;
-        }
-        cameraInfo.rotation = rotation;
-        Camera.Parameters parameters = camera.getParameters();
+        cameraInfo.rotation = getCaptureRotation(type, deviceOrientation);
         parameters.setRotation(cameraInfo.rotation);
+    }
+
+    /**
+     * Clockwise rotation, in degrees, that turns the sensor image upright for the given device orientation.
+     */
+    public int getCaptureRotation(int type, int deviceOrientation) {
+        CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
+        return RCTCameraRotation.getCaptureRotation(cameraInfo.info.facing, cameraInfo.info.orientation, deviceOrientation);
+    }
 
-        try {
-            camera.setParameters(parameters);
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Stage a new preview size if the current one no longer suits the view, picture size or policy.
+     *
+     * @return true if the preview size of the open camera changed, the preview must be restarted to apply it
+     */
+    public boolean updatePreviewSize(int type) {
+        RCTCameraParameters parameters = _parameters.get(type);
+        // the recorders are tied to the current frame size until they stop, the new size is used on the next open
+        if (null == parameters || RCTCameraVideoRecorder.getInstance().isRecording()
+                || RCTCameraPreRollRecorder.getInstance().isRecording()) {
+            return false;
         }
+        CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
+        RCTCameraCapabilities.Size current = parameters.getPreviewSize();
+        updatePreviewLayout(cameraInfo, true);
+        if (null != current && current.width == cameraInfo.previewSize.width && current.height == cameraInfo.previewSize.height) {
+            return false;
+        }
+        parameters.setPreviewSize(cameraInfo.previewSize.width, cameraInfo.previewSize.height);
+        return true;
     }
 
-    private void adjustPreviewLayout(int type) {
-        Camera camera = _cameras.get(type);
+    /**
+     * @param selectSize whether to pick a new preview size, only when the preview isn't running
+     */
+    private void adjustPreviewLayout(int type, boolean selectSize) {
+        RCTCameraBackend.Device camera = _cameras.get(type);
         if (null == camera) {
             return;
         }
 
         CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
-        int displayRotation;
-        int rotation;
-        int orientation = cameraInfo.info.orientation;
-        if (cameraInfo.info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            rotation = (orientation + _actualDeviceOrientation * 90) % 360;
-            displayRotation = (720 - orientation - _actualDeviceOrientation * 90) % 360;
-        } else {
-            rotation = (orientation - _actualDeviceOrientation * 90 + 360) % 360;
-            displayRotation = rotation;
-        }
-        cameraInfo.rotation = rotation;
+        int displayRotation = updatePreviewLayout(cameraInfo, selectSize);
         // TODO: take in account the _orientation prop
 
         camera.setDisplayOrientation(displayRotation);
+        cameraInfo.layoutOrientation = _actualDeviceOrientation;
 
-        Camera.Parameters parameters = camera.getParameters();
+        RCTCameraParameters parameters = _parameters.get(type);
         parameters.setRotation(cameraInfo.rotation);
+        parameters.setPreviewSize(cameraInfo.previewSize.width, cameraInfo.previewSize.height);
+        parameters.commit();
+    }
 
-        // set preview size
-        // defaults to highest resolution available
-        Camera.Size optimalPreviewSize = getBestPreviewSize(type, Integer.MAX_VALUE, Integer.MAX_VALUE);
-        int width = optimalPreviewSize.width;
-        int height = optimalPreviewSize.height;
+    /**
+     * Compute rotation and preview size of a camera from its capabilities, without touching the camera itself.
+     *
+     * @param selectSize whether to pick a new preview size, or keep the current one if there is one
+     * @return the display orientation the preview must be rotated by
+     */
+    private int updatePreviewLayout(CameraInfoWrapper cameraInfo, boolean selectSize) {
+        int facing = cameraInfo.info.facing;
+        int orientation = cameraInfo.info.orientation;
+        int rotation = RCTCameraRotation.getCaptureRotation(facing, orientation, _actualDeviceOrientation);
+        int displayRotation = RCTCameraRotation.getDisplayOrientation(facing, orientation, _actualDeviceOrientation);
+        cameraInfo.rotation = rotation;
 
-        parameters.setPreviewSize(width, height);
-        try {
-            camera.setParameters(parameters);
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (selectSize || null == cameraInfo.previewSize) {
+            cameraInfo.previewSize = selectPreviewSize(cameraInfo, rotation);
         }
+        int width = cameraInfo.previewSize.width;
+        int height = cameraInfo.previewSize.height;
 
-        if (cameraInfo.rotation == 0 || cameraInfo.rotation == 180) {
+        if (!RCTCameraRotation.isSideways(cameraInfo.rotation)) {
             cameraInfo.previewWidth = width;
             cameraInfo.previewHeight = height;
         } else {
             cameraInfo.previewWidth = height;
             cameraInfo.previewHeight = width;
         }
+        return displayRotation;
+    }
+
+    private RCTCameraCapabilities.Size selectPreviewSize(CameraInfoWrapper cameraInfo, int rotation) {
+        // the view size is in display orientation while preview sizes are in sensor orientation
+        boolean rotated = RCTCameraRotation.isSideways(rotation);
+        RCTCameraParameters parameters = _parameters.get(cameraInfo.type);
+        RCTCameraCapabilities.Size pictureSize = null != parameters ? parameters.getPictureSize() : null;
+        return RCTCameraPreviewSizePolicy.select(
+                cameraInfo.capabilities.previewSizes,
+                _previewSizePolicy,
+                rotated ? _viewHeight : _viewWidth,
+                rotated ? _viewWidth : _viewHeight,
+                _viewFill,
+                null != pictureSize ? (float) pictureSize.width / pictureSize.height : 0,
+                _maxPreviewPixels);
     }
 
-    private RCTCamera() {
+    private RCTCamera(Context context, RCTCameraBackend backend) {
+        _createdAt = SystemClock.elapsedRealtime();
+        _context = context;
+        _backend = backend;
         _cameras = new HashMap<>();
+        _parameters = new HashMap<>();
+        _savedParameters = new HashMap<>();
         _cameraInfos = new HashMap<>();
         _cameraTypeToIndex = new HashMap<>();
 
         // map camera types to camera indexes and collect cameras properties
-        for (int i = 0; i < Camera.getNumberOfCameras(); i++) {
-            Camera.CameraInfo info = new Camera.CameraInfo();
-            Camera.getCameraInfo(i, info);
-            if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT && _cameraInfos.get(RCTCameraModule.RCT_CAMERA_TYPE_FRONT) == null) {
-                _cameraInfos.put(RCTCameraModule.RCT_CAMERA_TYPE_FRONT, new CameraInfoWrapper(info));
+        // this only reads static camera info, no camera is opened until a view or capture needs it
+        for (int i = 0; i < backend.getNumberOfCameras(); i++) {
+            RCTCameraBackend.CameraInfo info = new RCTCameraBackend.CameraInfo();
+            backend.getCameraInfo(i, info);
+            if (info.facing == RCTCameraBackend.CAMERA_FACING_FRONT && _cameraInfos.get(RCTCameraModule.RCT_CAMERA_TYPE_FRONT) == null) {
+                _cameraInfos.put(RCTCameraModule.RCT_CAMERA_TYPE_FRONT, new CameraInfoWrapper(RCTCameraModule.RCT_CAMERA_TYPE_FRONT, i, info));
                 _cameraTypeToIndex.put(RCTCameraModule.RCT_CAMERA_TYPE_FRONT, i);
-                acquireCameraInstance(RCTCameraModule.RCT_CAMERA_TYPE_FRONT);
-                releaseCameraInstance(RCTCameraModule.RCT_CAMERA_TYPE_FRONT);
-            } else if (info.facing == Camera.CameraInfo.CAMERA_FACING_BACK && _cameraInfos.get(RCTCameraModule.RCT_CAMERA_TYPE_BACK) == null) {
-                _cameraInfos.put(RCTCameraModule.RCT_CAMERA_TYPE_BACK, new CameraInfoWrapper(info));
+            } else if (info.facing == RCTCameraBackend.CAMERA_FACING_BACK && _cameraInfos.get(RCTCameraModule.RCT_CAMERA_TYPE_BACK) == null) {
+                _cameraInfos.put(RCTCameraModule.RCT_CAMERA_TYPE_BACK, new CameraInfoWrapper(RCTCameraModule.RCT_CAMERA_TYPE_BACK, i, info));
                 _cameraTypeToIndex.put(RCTCameraModule.RCT_CAMERA_TYPE_BACK, i);
-                acquireCameraInstance(RCTCameraModule.RCT_CAMERA_TYPE_BACK);
-                releaseCameraInstance(RCTCameraModule.RCT_CAMERA_TYPE_BACK);
             }
         }
+        _cameraInfoTime = SystemClock.elapsedRealtime() - _createdAt;
+
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_OPEN, new Runnable() {
+            @Override
+            public void run() {
+                initialize();
+            }
+        });
     }
 
-    private class CameraInfoWrapper {
-        public final Camera.CameraInfo info;
-        public int rotation = 0;
-        public int previewWidth = -1;
-        public int previewHeight = -1;
+    // runs on the camera thread
+    private void initialize() {
+        long startedAt = SystemClock.elapsedRealtime();
+        for (CameraInfoWrapper cameraInfo : _cameraInfos.values()) {
+            if (null == cameraInfo.capabilities) {
+                cameraInfo.capabilities = RCTCameraCapabilities.load(_context, cameraInfo.index);
+            }
+            // without persisted capabilities the layout is computed on the first real open instead
+            if (null != cameraInfo.capabilities && null == cameraInfo.previewSize) {
+                updatePreviewLayout(cameraInfo, true);
+            }
+        }
+        long readyAt = SystemClock.elapsedRealtime();
+        _capabilitiesLoadTime = readyAt - startedAt;
+        _readyTime = readyAt - _createdAt;
+
+        List<Runnable> callbacks;
+        synchronized (_readyCallbacks) {
+            _ready = true;
+            callbacks = new ArrayList<>(_readyCallbacks);
+            _readyCallbacks.clear();
+        }
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    // Camera1 drops the callback of a pending takePicture when the preview is stopped or the camera released
+    private void abortPicture(CameraInfoWrapper cameraInfo) {
+        Runnable onAborted = cameraInfo.pictureAborted;
+        if (null != onAborted) {
+            cameraInfo.pictureAborted = null;
+            onAborted.run();
+        }
+    }
+
+    /**
+     * Handle on an open camera. The camera stays open while any lease on it is held, and for the keep-alive
+     * period after the last one is released. Only the lease showing the preview stops it.
+     */
+    public class Lease {
+        public final int type;
+        public final RCTCameraBackend.Device camera;
+        private final AtomicBoolean _released = new AtomicBoolean(false);
+
+        private Lease(int type, RCTCameraBackend.Device camera) {
+            this.type = type;
+            this.camera = camera;
+        }
+
+        /**
+         * Show the preview on the given surface, taking the camera over from the lease previewing so far
+         * without closing it. Must be called on the camera thread.
+         */
+        public void startPreview(SurfaceTexture surface) throws IOException {
+            CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
+            if (null != cameraInfo.previewOwner) {
+                // the previous surface stops getting frames, its view is going away
+                RCTCameraVideoRecorder.getInstance().stop(camera.getCamera());
+                RCTCameraFrameDispatcher.getInstance().detach(camera);
+                abortPicture(cameraInfo);
+                camera.stopPreview();
+                if (cameraInfo.previewOwner != this) {
+                    synchronized (RCTCamera.this) {
+                        _handovers++;
+                    }
+                }
+                cameraInfo.previewOwner = null;
+            }
+            camera.setPreviewTexture(surface);
+            camera.startPreview();
+            cameraInfo.previewOwner = this;
+            RCTCameraFrameDispatcher.getInstance().attach(camera, type);
+        }
 
-        public CameraInfoWrapper(Camera.CameraInfo info) {
+        /**
+         * Stop the preview, unless another lease took it over. Must be called on the camera thread.
+         */
+        public void stopPreview() {
+            if (!isPreviewOwner()) {
+                return;
+            }
+            RCTCameraVideoRecorder.getInstance().stop(camera.getCamera());
+            RCTCameraFrameDispatcher.getInstance().detach(camera);
+            abortPicture(_cameraInfos.get(type));
+            camera.stopPreview();
+            _cameraInfos.get(type).previewOwner = null;
+        }
+
+        /**
+         * Take a picture. If the preview is stopped or the camera closed before it arrives, the callback is
+         * never called and onAborted runs instead. Must be called on the camera thread.
+         */
+        public void takePicture(final RCTCameraBackend.PictureCallback callback, final Runnable onAborted) {
+            final CameraInfoWrapper cameraInfo = _cameraInfos.get(type);
+            cameraInfo.pictureAborted = onAborted;
+            try {
+                camera.takePicture(new RCTCameraBackend.PictureCallback() {
+                    @Override
+                    public void onPictureTaken(byte[] data, RCTCameraBackend.Device device) {
+                        if (cameraInfo.pictureAborted != onAborted) {
+                            // aborted, the preview was stopped on purpose
+                            return;
+                        }
+                        cameraInfo.pictureAborted = null;
+                        callback.onPictureTaken(data, device);
+                    }
+                });
+            } catch (RuntimeException e) {
+                cameraInfo.pictureAborted = null;
+                throw e;
+            }
+        }
+
+        /**
+         * Must be called on the camera thread.
+         */
+        public boolean isPreviewOwner() {
+            return _cameraInfos.get(type).previewOwner == this;
+        }
+
+        /**
+         * Give the camera back. Can be called from any thread, only the first call counts.
+         */
+        public void release() {
+            if (!_released.compareAndSet(false, true)) {
+                return;
+            }
+            RCTCameraExecutor executor = RCTCameraExecutor.getInstance();
+            if (executor.isCameraThread()) {
+                releaseLease(type);
+                return;
+            }
+            executor.execute(RCTCameraExecutor.COMMAND_RELEASE, new Runnable() {
+                @Override
+                public void run() {
+                    releaseLease(type);
+                }
+            });
+        }
+    }
+
+    private class CameraInfoWrapper {
+        public final int type;
+        public final int index;
+        public final RCTCameraBackend.CameraInfo info;
+        // touched on the camera thread only
+        public int leases = 0;
+        public int closeGeneration = 0;
+        public Lease previewOwner = null;
+        // called if the pending picture is dropped
+        public Runnable pictureAborted = null;
+        // device orientation the open camera was last laid out for
+        public int layoutOrientation = -1;
+        public volatile RCTCameraCapabilities capabilities = null;
+        public RCTCameraCapabilities.Size previewSize = null;
+        public volatile int rotation = 0;
+        public volatile int previewWidth = -1;
+        public volatile int previewHeight = -1;
+
+        public CameraInfoWrapper(int type, int index, RCTCameraBackend.CameraInfo info) {
+            this.type = type;
+            this.index = index;
             this.info = info;
         }
     }
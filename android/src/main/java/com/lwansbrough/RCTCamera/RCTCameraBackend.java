@@ -0,0 +1,93 @@
+package com.lwansbrough.RCTCamera;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+
+import java.io.IOException;
+
+/**
+ * The camera hardware, as seen by the rest of the module.
+ *
+ * Modelled on the Camera1 API the module was written against: parameters travel in their flattened
+ * "key=value;key=value" form, preview frames are delivered into buffers queued with addCallbackBuffer, and
+ * every call is made on the camera thread. RCTCameraCamera1Backend drives the device's cameras, and
+ * RCTCameraFakeBackend produces synthetic frames and pictures so the module can run without any.
+ * Set one with RCTCameraPackage.setCameraBackend().
+ */
+public interface RCTCameraBackend {
+    // same values as Camera.CameraInfo
+    int CAMERA_FACING_BACK = 0;
+    int CAMERA_FACING_FRONT = 1;
+
+    int getNumberOfCameras();
+
+    /**
+     * Static information about a camera, read without opening it.
+     */
+    void getCameraInfo(int index, CameraInfo info);
+
+    /**
+     * @throws RuntimeException if the camera can't be opened, e.g. because another app is using it
+     */
+    Device open(int index);
+
+    class CameraInfo {
+        public int facing;
+        // clockwise rotation, in degrees, of the sensor image relative to the device's natural orientation
+        public int orientation;
+    }
+
+    interface Device {
+        /**
+         * Current parameters, flattened.
+         */
+        String getParameters();
+
+        /**
+         * @throws RuntimeException if the camera rejects the parameters
+         */
+        void setParameters(String parameters);
+
+        void setDisplayOrientation(int degrees);
+
+        void setPreviewTexture(SurfaceTexture surface) throws IOException;
+
+        void startPreview();
+
+        void stopPreview();
+
+        /**
+         * Queue a buffer for the next preview frame, delivered to the callback set below.
+         */
+        void addCallbackBuffer(byte[] buffer);
+
+        /**
+         * Deliver preview frames into the queued buffers, frames arriving without a queued buffer are dropped.
+         * Null stops the delivery and drops the queued buffers.
+         */
+        void setPreviewCallbackWithBuffer(PreviewCallback callback);
+
+        /**
+         * Take a JPEG picture. The preview stops until startPreview() is called again.
+         */
+        void takePicture(PictureCallback callback);
+
+        void release();
+
+        /**
+         * The Camera1 camera behind this device, for MediaRecorder, or null if there is none.
+         */
+        Camera getCamera();
+    }
+
+    interface PreviewCallback {
+        /**
+         * @param data a buffer queued with addCallbackBuffer, or null if the queued buffer was too small
+         */
+        void onPreviewFrame(byte[] data, Device device);
+    }
+
+    interface PictureCallback {
+        void onPictureTaken(byte[] jpeg, Device device);
+    }
+}
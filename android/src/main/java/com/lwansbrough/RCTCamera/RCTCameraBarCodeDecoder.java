@@ -0,0 +1,219 @@
+package com.lwansbrough.RCTCamera;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.DecodeHintType;
+import com.google.zxing.MultiFormatReader;
+import com.google.zxing.PlanarYUVLuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.ResultPoint;
+import com.google.zxing.common.HybridBinarizer;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Decodes barcodes from the luminance (Y) plane of NV21 frames.
+ *
+ * Only the region of interest is handed to the reader, straight out of the frame without copying. One
+ * dimensional symbologies are read along rows, so when nothing is found and one of them is enabled, the
+ * region is decoded a second time rotated by 90 degrees, through a buffer reused across frames.
+ *
+ * Not thread safe, use one instance per worker thread.
+ */
+class RCTCameraBarCodeDecoder {
+
+    private static final EnumSet<BarcodeFormat> ONE_DIMENSIONAL = EnumSet.of(
+            BarcodeFormat.CODABAR, BarcodeFormat.CODE_39, BarcodeFormat.CODE_93, BarcodeFormat.CODE_128,
+            BarcodeFormat.EAN_8, BarcodeFormat.EAN_13, BarcodeFormat.ITF, BarcodeFormat.UPC_A,
+            BarcodeFormat.UPC_E, BarcodeFormat.UPC_EAN_EXTENSION);
+
+    private final MultiFormatReader _reader = new MultiFormatReader();
+    private boolean _hasOneDimensional = false;
+    private boolean _enabled = false;
+    private byte[] _rotated = new byte[0];
+
+    public RCTCameraBarCodeDecoder() {
+        setFormats(EnumSet.noneOf(BarcodeFormat.class));
+    }
+
+    public void setFormats(Collection<BarcodeFormat> formats) {
+        Map<DecodeHintType, Object> hints = new EnumMap<>(DecodeHintType.class);
+        hints.put(DecodeHintType.POSSIBLE_FORMATS, EnumSet.copyOf(formats.isEmpty() ? EnumSet.of(BarcodeFormat.QR_CODE) : formats));
+        _reader.setHints(hints);
+        _enabled = !formats.isEmpty();
+        _hasOneDimensional = false;
+        for (BarcodeFormat format : formats) {
+            _hasOneDimensional |= ONE_DIMENSIONAL.contains(format);
+        }
+    }
+
+    /**
+     * Decode the given region of an NV21 frame.
+     *
+     * @return the decoded barcode, with its bounds in frame pixels, or null if none was found
+     */
+    public Result decode(byte[] data, int width, int height, int left, int top, int regionWidth, int regionHeight) {
+        if (!_enabled) {
+            return null;
+        }
+        PlanarYUVLuminanceSource source = new PlanarYUVLuminanceSource(data, width, height, left, top, regionWidth, regionHeight, false);
+        com.google.zxing.Result result = decode(source);
+        if (null != result) {
+            return new Result(result, left, top, regionWidth, regionHeight, false);
+        }
+        if (!_hasOneDimensional) {
+            return null;
+        }
+
+        int size = regionWidth * regionHeight;
+        if (_rotated.length < size) {
+            _rotated = new byte[size];
+        }
+        // rotate clockwise, so rows of the rotated region are columns of the frame read bottom up
+        byte[] rotated = _rotated;
+        for (int y = 0; y < regionHeight; y++) {
+            int offset = (top + y) * width + left;
+            int column = regionHeight - 1 - y;
+            for (int x = 0; x < regionWidth; x++) {
+                rotated[x * regionHeight + column] = data[offset + x];
+            }
+        }
+        source = new PlanarYUVLuminanceSource(rotated, regionHeight, regionWidth, 0, 0, regionHeight, regionWidth, false);
+        result = decode(source);
+        return null == result ? null : new Result(result, left, top, regionWidth, regionHeight, true);
+    }
+
+    private com.google.zxing.Result decode(PlanarYUVLuminanceSource source) {
+        try {
+            return _reader.decodeWithState(new BinaryBitmap(new HybridBinarizer(source)));
+        } catch (ReaderException e) {
+            return null;
+        } finally {
+            _reader.reset();
+        }
+    }
+
+    /**
+     * Map a region given as fractions of the upright image onto frame pixels.
+     *
+     * @param rotation clockwise rotation in degrees turning the frame upright
+     * @param out      receives left, top, width and height in frame pixels, clamped to the frame
+     */
+    public static void toFrameRegion(float x, float y, float width, float height, int rotation,
+                                     int frameWidth, int frameHeight, int[] out) {
+        float left, top, regionWidth, regionHeight;
+        switch ((rotation % 360 + 360) % 360) {
+            case 90:
+                left = y;
+                top = 1 - x - width;
+                regionWidth = height;
+                regionHeight = width;
+                break;
+            case 180:
+                left = 1 - x - width;
+                top = 1 - y - height;
+                regionWidth = width;
+                regionHeight = height;
+                break;
+            case 270:
+                left = 1 - y - height;
+                top = x;
+                regionWidth = height;
+                regionHeight = width;
+                break;
+            default:
+                left = x;
+                top = y;
+                regionWidth = width;
+                regionHeight = height;
+        }
+        int l = clamp(Math.round(left * frameWidth), 0, frameWidth - 1);
+        int t = clamp(Math.round(top * frameHeight), 0, frameHeight - 1);
+        out[0] = l;
+        out[1] = t;
+        out[2] = clamp(Math.round(regionWidth * frameWidth), 1, frameWidth - l);
+        out[3] = clamp(Math.round(regionHeight * frameHeight), 1, frameHeight - t);
+    }
+
+    /**
+     * Map bounds in frame pixels onto the upright image, the inverse of toFrameRegion but in pixels.
+     *
+     * @param out receives x, y, width and height in upright image pixels
+     */
+    public static void toUprightBounds(int left, int top, int width, int height, int rotation,
+                                       int frameWidth, int frameHeight, int[] out) {
+        switch ((rotation % 360 + 360) % 360) {
+            case 90:
+                out[0] = frameHeight - top - height;
+                out[1] = left;
+                out[2] = height;
+                out[3] = width;
+                break;
+            case 180:
+                out[0] = frameWidth - left - width;
+                out[1] = frameHeight - top - height;
+                out[2] = width;
+                out[3] = height;
+                break;
+            case 270:
+                out[0] = top;
+                out[1] = frameWidth - left - width;
+                out[2] = height;
+                out[3] = width;
+                break;
+            default:
+                out[0] = left;
+                out[1] = top;
+                out[2] = width;
+                out[3] = height;
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public static class Result {
+        public final BarcodeFormat format;
+        public final String text;
+        // bounding box of the result points, in frame pixels
+        public final int left;
+        public final int top;
+        public final int width;
+        public final int height;
+
+        private Result(com.google.zxing.Result result, int regionLeft, int regionTop, int regionWidth, int regionHeight, boolean rotated) {
+            format = result.getBarcodeFormat();
+            text = result.getText();
+            float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+            ResultPoint[] points = result.getResultPoints();
+            if (null != points) {
+                for (ResultPoint point : points) {
+                    if (null == point) {
+                        continue;
+                    }
+                    // undo the clockwise rotation, then move from the region into the frame
+                    float x = rotated ? point.getY() : point.getX();
+                    float y = rotated ? regionHeight - 1 - point.getX() : point.getY();
+                    minX = Math.min(minX, x);
+                    minY = Math.min(minY, y);
+                    maxX = Math.max(maxX, x);
+                    maxY = Math.max(maxY, y);
+                }
+            }
+            if (minX > maxX) {
+                // no points reported, fall back to the whole region
+                minX = minY = 0;
+                maxX = regionWidth;
+                maxY = regionHeight;
+            }
+            left = regionLeft + Math.round(minX);
+            top = regionTop + Math.round(minY);
+            width = Math.round(maxX - minX);
+            height = Math.round(maxY - minY);
+        }
+    }
+}
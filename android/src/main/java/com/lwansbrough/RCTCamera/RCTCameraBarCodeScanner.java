@@ -0,0 +1,261 @@
+package com.lwansbrough.RCTCamera;
+
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
+import com.google.zxing.BarcodeFormat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Frame processor scanning preview frames for barcodes, registered with the frame dispatcher while at least
+ * one barcode type is enabled.
+ *
+ * Decoding runs on its own worker thread and is throttled to at most half of that thread's time: after each
+ * frame, frames are skipped for as long as decoding took on average. Results identical to one already sent
+ * within the dedupe window are not sent to JS again.
+ */
+class RCTCameraBarCodeScanner implements RCTCameraFrameProcessor {
+
+    /**
+     * Supported symbologies, keyed like the iOS BarCodeType constants.
+     */
+    public static final Map<String, BarcodeFormat> TYPES = Collections.unmodifiableMap(new LinkedHashMap<String, BarcodeFormat>() {
+        {
+            put("aztec", BarcodeFormat.AZTEC);
+            put("code138", BarcodeFormat.CODE_128);
+            put("code39", BarcodeFormat.CODE_39);
+            put("code93", BarcodeFormat.CODE_93);
+            put("ean13", BarcodeFormat.EAN_13);
+            put("ean8", BarcodeFormat.EAN_8);
+            put("pdf417", BarcodeFormat.PDF_417);
+            put("qr", BarcodeFormat.QR_CODE);
+            put("upce", BarcodeFormat.UPC_E);
+            put("interleaved2of5", BarcodeFormat.ITF);
+            put("datamatrix", BarcodeFormat.DATA_MATRIX);
+        }
+    });
+
+    private static final int DEFAULT_DEDUPE_WINDOW = 1000;
+    private static final int LATENCY_SAMPLES = 128;
+
+    private static final RCTCameraBarCodeScanner ourInstance = new RCTCameraBarCodeScanner();
+    private final Executor _worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "RCTCameraBarCodeThread");
+        }
+    });
+
+    // configuration, written from the UI thread
+    private volatile ReactContext _reactContext = null;
+    private volatile Set<BarcodeFormat> _formats = EnumSet.noneOf(BarcodeFormat.class);
+    private volatile float[] _region = {0, 0, 1, 1};
+    private volatile long _dedupeWindow = DEFAULT_DEDUPE_WINDOW;
+    private boolean _registered = false;
+
+    // touched on the worker thread only
+    private final RCTCameraBarCodeDecoder _decoder = new RCTCameraBarCodeDecoder();
+    private final int[] _frameRegion = new int[4];
+    private final int[] _bounds = new int[4];
+    private final Map<String, Long> _recent = new HashMap<>();
+    private Set<BarcodeFormat> _decoderFormats = null;
+    private long _averageDecodeNanos = 0;
+    private long _nextFrameAt = 0;
+
+    // metrics, guarded by this
+    private final long[] _latencies = new long[LATENCY_SAMPLES];
+    private final long[] _analysedAt = new long[LATENCY_SAMPLES];
+    private int _analysed = 0;
+    private int _skipped = 0;
+    private int _decoded = 0;
+    private int _duplicates = 0;
+
+    public static RCTCameraBarCodeScanner getInstance() {
+        return ourInstance;
+    }
+
+    public void setReactContext(ReactContext reactContext) {
+        _reactContext = reactContext;
+    }
+
+    /**
+     * Enable the given BarCodeType values, starting or stopping scanning as needed.
+     */
+    public void setBarCodeTypes(ReadableArray types) {
+        Set<BarcodeFormat> formats = EnumSet.noneOf(BarcodeFormat.class);
+        for (int i = 0; null != types && i < types.size(); i++) {
+            try {
+                formats.add(BarcodeFormat.valueOf(types.getString(i)));
+            } catch (IllegalArgumentException ignored) {
+                // types only iOS knows about
+            }
+        }
+        _formats = formats;
+
+        synchronized (this) {
+            if (formats.isEmpty() && _registered) {
+                RCTCameraFrameDispatcher.getInstance().unregister(this);
+                _registered = false;
+            } else if (!formats.isEmpty() && !_registered) {
+                RCTCameraFrameDispatcher.getInstance().register(this, _worker);
+                _registered = true;
+            }
+        }
+    }
+
+    /**
+     * Only scan the given part of the preview, as fractions x, y, width and height of the upright image.
+     */
+    public void setRegion(ReadableMap region) {
+        if (null == region) {
+            _region = new float[]{0, 0, 1, 1};
+            return;
+        }
+        float x = region.hasKey("x") ? (float) region.getDouble("x") : 0;
+        float y = region.hasKey("y") ? (float) region.getDouble("y") : 0;
+        float width = region.hasKey("width") ? (float) region.getDouble("width") : 1 - x;
+        float height = region.hasKey("height") ? (float) region.getDouble("height") : 1 - y;
+        _region = new float[]{x, y, width, height};
+    }
+
+    public void setDedupeWindow(int dedupeWindow) {
+        _dedupeWindow = Math.max(0, dedupeWindow);
+    }
+
+    @Override
+    public String getName() {
+        return "barCodeScanner";
+    }
+
+    @Override
+    public void process(byte[] data, int width, int height, int rotation, long timestamp) {
+        if (timestamp < _nextFrameAt) {
+            synchronized (this) {
+                _skipped++;
+            }
+            return;
+        }
+        Set<BarcodeFormat> formats = _formats;
+        if (formats != _decoderFormats) {
+            _decoder.setFormats(formats);
+            _decoderFormats = formats;
+        }
+
+        float[] region = _region;
+        RCTCameraBarCodeDecoder.toFrameRegion(region[0], region[1], region[2], region[3], rotation, width, height, _frameRegion);
+        long startedAt = System.nanoTime();
+        RCTCameraBarCodeDecoder.Result result = _decoder.decode(data, width, height,
+                _frameRegion[0], _frameRegion[1], _frameRegion[2], _frameRegion[3]);
+        long duration = System.nanoTime() - startedAt;
+
+        // keep decoding under half of the worker's time, whatever the frame rate and device speed
+        _averageDecodeNanos = 0 == _averageDecodeNanos ? duration : (_averageDecodeNanos * 7 + duration) / 8;
+        _nextFrameAt = SystemClock.elapsedRealtime() + _averageDecodeNanos / 1000000;
+
+        boolean duplicate = null != result && isDuplicate(result, timestamp);
+        synchronized (this) {
+            int sample = _analysed % LATENCY_SAMPLES;
+            _latencies[sample] = duration;
+            _analysedAt[sample] = timestamp;
+            _analysed++;
+            if (null != result) {
+                _decoded++;
+            }
+            if (duplicate) {
+                _duplicates++;
+            }
+        }
+        if (null != result && !duplicate) {
+            emit(result, rotation, width, height);
+        }
+    }
+
+    private boolean isDuplicate(RCTCameraBarCodeDecoder.Result result, long timestamp) {
+        long window = _dedupeWindow;
+        Iterator<Long> iterator = _recent.values().iterator();
+        while (iterator.hasNext()) {
+            if (timestamp - iterator.next() >= window) {
+                iterator.remove();
+            }
+        }
+        String key = result.format.name() + ":" + result.text;
+        // a barcode held in front of the camera keeps being suppressed, the window restarts on every sighting
+        return null != _recent.put(key, timestamp);
+    }
+
+    private void emit(RCTCameraBarCodeDecoder.Result result, int rotation, int width, int height) {
+        ReactContext reactContext = _reactContext;
+        if (null == reactContext) {
+            return;
+        }
+        RCTCameraBarCodeDecoder.toUprightBounds(result.left, result.top, result.width, result.height, rotation, width, height, _bounds);
+        WritableMap origin = new WritableNativeMap();
+        origin.putInt("x", _bounds[0]);
+        origin.putInt("y", _bounds[1]);
+        WritableMap size = new WritableNativeMap();
+        size.putInt("width", _bounds[2]);
+        size.putInt("height", _bounds[3]);
+        WritableMap bounds = new WritableNativeMap();
+        bounds.putMap("origin", origin);
+        bounds.putMap("size", size);
+        WritableMap event = new WritableNativeMap();
+        event.putString("type", result.format.name());
+        event.putString("data", result.text);
+        event.putMap("bounds", bounds);
+        reactContext.getJSModule(RCTNativeAppEventEmitter.class).emit("CameraBarCodeRead", event);
+    }
+
+    public synchronized WritableMap getStats() {
+        int samples = Math.min(_analysed, LATENCY_SAMPLES);
+        long[] latencies = Arrays.copyOf(_latencies, samples);
+        Arrays.sort(latencies);
+        double framesPerSecond = 0;
+        if (samples > 1) {
+            long newest = _analysedAt[(_analysed - 1) % LATENCY_SAMPLES];
+            long oldest = _analysedAt[(_analysed - samples) % LATENCY_SAMPLES];
+            framesPerSecond = newest > oldest ? (samples - 1) * 1000.0 / (newest - oldest) : 0;
+        }
+
+        WritableMap decodeMs = new WritableNativeMap();
+        decodeMs.putDouble("p50", percentile(latencies, 50));
+        decodeMs.putDouble("p90", percentile(latencies, 90));
+        decodeMs.putDouble("p99", percentile(latencies, 99));
+        decodeMs.putDouble("max", samples == 0 ? 0 : latencies[samples - 1] / 1e6);
+        WritableMap stats = new WritableNativeMap();
+        stats.putBoolean("scanning", _registered);
+        stats.putInt("analysed", _analysed);
+        stats.putInt("skipped", _skipped);
+        stats.putInt("decoded", _decoded);
+        stats.putInt("duplicates", _duplicates);
+        stats.putDouble("framesPerSecond", framesPerSecond);
+        stats.putMap("decodeMs", decodeMs);
+        return stats;
+    }
+
+    private static double percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percentile / 100.0) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private RCTCameraBarCodeScanner() {
+    }
+}
@@ -0,0 +1,67 @@
+package com.lwansbrough.RCTCamera;
+
+import java.nio.charset.Charset;
+
+/**
+ * Base64 encoder without line wraps that reuses its output buffer between calls.
+ *
+ * android.util.Base64 allocates a new output array on every call and wraps lines with DEFAULT; this keeps a
+ * single growing buffer, so the only allocation per call is the resulting String. Not thread safe.
+ */
+class RCTCameraBase64Encoder {
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(US_ASCII);
+
+    private byte[] _buffer = new byte[0];
+
+    public static int encodedLength(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    public String encode(byte[] data) {
+        return encode(data, 0, data.length);
+    }
+
+    public String encode(byte[] data, int offset, int length) {
+        int encodedLength = encodedLength(length);
+        if (_buffer.length < encodedLength) {
+            _buffer = new byte[encodedLength];
+        }
+        encode(data, offset, length, _buffer);
+        return new String(_buffer, 0, encodedLength, US_ASCII);
+    }
+
+    /**
+     * Encode into the given output, which must hold at least encodedLength(length) bytes.
+     */
+    public static void encode(byte[] data, int offset, int length, byte[] output) {
+        int in = offset;
+        int out = 0;
+        int end = offset + length - length % 3;
+        while (in < end) {
+            int bits = (data[in++] & 0xff) << 16 | (data[in++] & 0xff) << 8 | (data[in++] & 0xff);
+            output[out++] = ALPHABET[bits >>> 18];
+            output[out++] = ALPHABET[(bits >>> 12) & 0x3f];
+            output[out++] = ALPHABET[(bits >>> 6) & 0x3f];
+            output[out++] = ALPHABET[bits & 0x3f];
+        }
+        switch (length % 3) {
+            case 1: {
+                int bits = (data[in] & 0xff) << 16;
+                output[out++] = ALPHABET[bits >>> 18];
+                output[out++] = ALPHABET[(bits >>> 12) & 0x3f];
+                output[out++] = '=';
+                output[out] = '=';
+                break;
+            }
+            case 2: {
+                int bits = (data[in] & 0xff) << 16 | (data[in + 1] & 0xff) << 8;
+                output[out++] = ALPHABET[bits >>> 18];
+                output[out++] = ALPHABET[(bits >>> 12) & 0x3f];
+                output[out++] = ALPHABET[(bits >>> 6) & 0x3f];
+                output[out] = '=';
+                break;
+            }
+        }
+    }
+}
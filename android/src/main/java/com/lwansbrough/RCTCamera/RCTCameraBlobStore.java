@@ -0,0 +1,98 @@
+package com.lwansbrough.RCTCamera;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Short-lived in-process handles to captured data, so JS can read large captures piecewise instead of
+ * receiving them as one string. Blobs expire after their time to live unless released earlier: a purge is
+ * scheduled for the earliest expiry, so an unreleased capture is dropped even if JS never calls back.
+ */
+class RCTCameraBlobStore {
+    public static final long DEFAULT_TTL = 30000;
+
+    private final Map<String, Blob> _blobs = new HashMap<>();
+    private final Handler _handler = new Handler(Looper.getMainLooper());
+    private final Runnable _purgeTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (RCTCameraBlobStore.this) {
+                _purgeAt = 0;
+                purge();
+            }
+        }
+    };
+    private int _nextId = 0;
+    // elapsedRealtime() the purge task is scheduled for, 0 if it isn't
+    private long _purgeAt = 0;
+
+    public synchronized String put(byte[] data, long ttl) {
+        purge();
+        String id = "capture-" + (++_nextId);
+        long expiresAt = SystemClock.elapsedRealtime() + ttl;
+        _blobs.put(id, new Blob(data, expiresAt));
+        schedulePurge(expiresAt);
+        return id;
+    }
+
+    public synchronized byte[] get(String id) {
+        purge();
+        Blob blob = _blobs.get(id);
+        return null == blob ? null : blob.data;
+    }
+
+    public synchronized boolean remove(String id) {
+        purge();
+        return null != _blobs.remove(id);
+    }
+
+    /**
+     * Drop every blob, e.g. when the React context goes away.
+     */
+    public synchronized void clear() {
+        _blobs.clear();
+        _handler.removeCallbacks(_purgeTask);
+        _purgeAt = 0;
+    }
+
+    private void purge() {
+        long now = SystemClock.elapsedRealtime();
+        long nextExpiry = Long.MAX_VALUE;
+        Iterator<Blob> iterator = _blobs.values().iterator();
+        while (iterator.hasNext()) {
+            long expiresAt = iterator.next().expiresAt;
+            if (expiresAt <= now) {
+                iterator.remove();
+            } else {
+                nextExpiry = Math.min(nextExpiry, expiresAt);
+            }
+        }
+        if (nextExpiry != Long.MAX_VALUE) {
+            schedulePurge(nextExpiry);
+        }
+    }
+
+    private void schedulePurge(long at) {
+        if (_purgeAt != 0 && _purgeAt <= at) {
+            return;
+        }
+        _handler.removeCallbacks(_purgeTask);
+        _purgeAt = at;
+        _handler.postDelayed(_purgeTask, Math.max(0, at - SystemClock.elapsedRealtime()));
+    }
+
+    private static class Blob {
+        public final byte[] data;
+        public final long expiresAt;
+
+        public Blob(byte[] data, long expiresAt) {
+            this.data = data;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.lwansbrough.RCTCamera;
+
+import android.graphics.ImageFormat;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.bridge.WritableNativeMap;
+
+/**
+ * Burst of JPEG captures taken from preview frames, without the preview restart Camera.takePicture forces.
+ *
+ * Frames are delivered into a small pool of preallocated NV21 buffers and compressed on a shared encoder
+ * pool. When every encoder is busy the frame is dropped and its buffer handed straight back to the camera.
+ * Each JPEG is stored through the regular capture targets; the burst settles once all of them are stored.
+ */
+class RCTCameraBurstCapture implements RCTCameraBackend.PreviewCallback {
+
+    interface Store {
+        /**
+         * Store one JPEG through the capture target, settling the given promise with its result.
+         */
+        void store(byte[] jpeg, Promise promise);
+    }
+
+    private static final int BUFFERS = RCTCameraJpeg.ENCODERS + 2;
+    private static final int DEFAULT_COUNT = 10;
+    private static final int MAX_COUNT = 100;
+    private static final int DEFAULT_QUALITY = 90;
+    private static final int DEFAULT_TIMEOUT = 5000;
+
+    // touched on the camera thread only, the preview callback takes one burst at a time
+    private static boolean ourActive = false;
+
+    private final RCTCameraBackend.Device _camera;
+    private final int _rotation;
+    private final Store _store;
+    private final Promise _promise;
+    private final int _count;
+    private final long _minInterval;
+    private final int _quality;
+    private final long _timeout;
+    private int _width;
+    private int _height;
+
+    // touched on the camera thread only
+    private boolean _capturing = false;
+    private int _accepted = 0;
+    private int _dropped = 0;
+    private int _encoding = 0;
+    private long _firstFrameAt = 0;
+    private long _lastFrameAt = 0;
+
+    // guarded by this
+    private WritableMap[] _results;
+    private int _settled = 0;
+    private int _failed = 0;
+    private boolean _finished = false;
+
+    public RCTCameraBurstCapture(RCTCameraBackend.Device camera, int rotation, ReadableMap options, Store store, Promise promise) {
+        _camera = camera;
+        _rotation = rotation;
+        _store = store;
+        _promise = promise;
+        _count = Math.max(1, Math.min(MAX_COUNT, options.hasKey("burstCount") ? options.getInt("burstCount") : DEFAULT_COUNT));
+        _minInterval = options.hasKey("burstFps") && options.getDouble("burstFps") > 0 ? (long) (1000 / options.getDouble("burstFps")) : 0;
+        _quality = options.hasKey("jpegQuality") ? options.getInt("jpegQuality") : DEFAULT_QUALITY;
+        _timeout = options.hasKey("burstTimeout") ? options.getInt("burstTimeout") : DEFAULT_TIMEOUT;
+        _results = new WritableMap[_count];
+    }
+
+    /**
+     * Whether a burst is taking preview frames. Must be called on the camera thread.
+     */
+    public static boolean isActive() {
+        return ourActive;
+    }
+
+    /**
+     * Start receiving preview frames. Must be called on the camera thread while preview is running.
+     */
+    public void start(RCTCameraParameters parameters) {
+        if (ourActive) {
+            _promise.reject("A burst capture is already running.");
+            return;
+        }
+        // MediaRecorder holds the camera, preview frames can't be taken from it
+        if (RCTCameraVideoRecorder.getInstance().isRecording()) {
+            _promise.reject("Burst capture can't run while recording.");
+            return;
+        }
+        if (!RCTCameraParameters.PREVIEW_FORMAT_NV21.equals(parameters.getPreviewFormat())) {
+            _promise.reject("Burst capture needs NV21 preview frames.");
+            return;
+        }
+        RCTCameraCapabilities.Size previewSize = parameters.getPreviewSize();
+        _width = previewSize.width;
+        _height = previewSize.height;
+        int bufferSize = _width * _height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        _capturing = true;
+        ourActive = true;
+        // the frame processors get their frames again once the burst is over
+        RCTCameraFrameDispatcher.getInstance().pause();
+        for (int i = 0; i < BUFFERS; i++) {
+            _camera.addCallbackBuffer(new byte[bufferSize]);
+        }
+        _camera.setPreviewCallbackWithBuffer(this);
+        RCTCameraExecutor.getInstance().executeDelayed(RCTCameraExecutor.COMMAND_FRAME, new Runnable() {
+            @Override
+            public void run() {
+                stopCapturing();
+            }
+        }, _timeout);
+    }
+
+    @Override
+    public void onPreviewFrame(final byte[] data, RCTCameraBackend.Device camera) {
+        if (!_capturing || null == data) {
+            return;
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (_accepted > 0 && now - _lastFrameAt < _minInterval) {
+            camera.addCallbackBuffer(data);
+            return;
+        }
+        if (_encoding >= RCTCameraJpeg.ENCODERS) {
+            _dropped++;
+            camera.addCallbackBuffer(data);
+            return;
+        }
+
+        final int index = _accepted++;
+        if (index == 0) {
+            _firstFrameAt = now;
+        }
+        _lastFrameAt = now;
+        _encoding++;
+        RCTCameraJpeg.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] jpeg = null;
+                try {
+                    jpeg = RCTCameraJpeg.compressNv21(data, _width, _height, _quality, _rotation);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_FRAME, new Runnable() {
+                    @Override
+                    public void run() {
+                        onFrameEncoded(data);
+                    }
+                });
+                if (null == jpeg) {
+                    new FramePromise(index).reject("Error compressing frame.");
+                } else {
+                    _store.store(jpeg, new FramePromise(index));
+                }
+            }
+        });
+        if (_accepted == _count) {
+            stopCapturing();
+        }
+    }
+
+    private void onFrameEncoded(byte[] buffer) {
+        _encoding--;
+        if (_capturing) {
+            _camera.addCallbackBuffer(buffer);
+        }
+    }
+
+    private void stopCapturing() {
+        if (!_capturing) {
+            return;
+        }
+        _capturing = false;
+        ourActive = false;
+        _camera.setPreviewCallbackWithBuffer(null);
+        RCTCameraFrameDispatcher.getInstance().resume();
+        synchronized (this) {
+            // frames that were never taken won't settle, stop waiting for them
+            for (int i = _accepted; i < _count; i++) {
+                _settled++;
+            }
+            finishIfDone();
+        }
+    }
+
+    private void finishIfDone() {
+        if (_finished || _settled < _count) {
+            return;
+        }
+        _finished = true;
+        if (_accepted == 0 || _failed == _accepted) {
+            _promise.reject("Burst capture did not store any frame.");
+            return;
+        }
+        WritableArray captures = new WritableNativeArray();
+        for (WritableMap result : _results) {
+            if (null != result) {
+                captures.pushMap(result);
+            }
+        }
+        long duration = _lastFrameAt - _firstFrameAt;
+        WritableMap response = new WritableNativeMap();
+        response.putArray("captures", captures);
+        response.putInt("frames", _accepted);
+        response.putInt("failed", _failed);
+        response.putInt("dropped", _dropped);
+        response.putDouble("durationMs", duration);
+        response.putDouble("fps", duration > 0 ? (_accepted - 1) * 1000.0 / duration : 0);
+        _results = null;
+        _promise.resolve(response);
+    }
+
+    private class FramePromise implements Promise {
+        private final int _index;
+
+        public FramePromise(int index) {
+            _index = index;
+        }
+
+        @Override
+        public void resolve(Object value) {
+            synchronized (RCTCameraBurstCapture.this) {
+                _results[_index] = (WritableMap) value;
+                _settled++;
+                finishIfDone();
+            }
+        }
+
+        @Override
+        public void reject(Throwable reason) {
+            reject(reason.getMessage());
+        }
+
+        @Override
+        public void reject(String reason) {
+            synchronized (RCTCameraBurstCapture.this) {
+                _failed++;
+                _settled++;
+                finishIfDone();
+            }
+        }
+    }
+}
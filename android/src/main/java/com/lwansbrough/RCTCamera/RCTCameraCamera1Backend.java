@@ -0,0 +1,122 @@
+package com.lwansbrough.RCTCamera;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+
+import java.io.IOException;
+
+/**
+ * The device's cameras, through android.hardware.Camera.
+ *
+ * Cameras opened on the camera thread deliver their callbacks there as well. Each device keeps the
+ * Camera.Parameters it read once, and only unflattens changes into it before handing it back to the camera.
+ */
+class RCTCameraCamera1Backend implements RCTCameraBackend {
+
+    @Override
+    public int getNumberOfCameras() {
+        return Camera.getNumberOfCameras();
+    }
+
+    @Override
+    public void getCameraInfo(int index, CameraInfo info) {
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        Camera.getCameraInfo(index, cameraInfo);
+        info.facing = cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT ? CAMERA_FACING_FRONT : CAMERA_FACING_BACK;
+        info.orientation = cameraInfo.orientation;
+    }
+
+    @Override
+    public Device open(int index) {
+        return new Camera1Device(Camera.open(index));
+    }
+
+    private static class Camera1Device implements Device {
+        private final Camera _camera;
+        private Camera.Parameters _parameters;
+
+        private Camera1Device(Camera camera) {
+            _camera = camera;
+        }
+
+        @Override
+        public String getParameters() {
+            _parameters = _camera.getParameters();
+            return _parameters.flatten();
+        }
+
+        @Override
+        public void setParameters(String parameters) {
+            if (null == _parameters) {
+                _parameters = _camera.getParameters();
+            }
+            _parameters.unflatten(parameters);
+            try {
+                _camera.setParameters(_parameters);
+            } catch (RuntimeException e) {
+                // don't carry the rejected values into the next change
+                _parameters = null;
+                throw e;
+            }
+        }
+
+        @Override
+        public void setDisplayOrientation(int degrees) {
+            _camera.setDisplayOrientation(degrees);
+        }
+
+        @Override
+        public void setPreviewTexture(SurfaceTexture surface) throws IOException {
+            _camera.setPreviewTexture(surface);
+        }
+
+        @Override
+        public void startPreview() {
+            _camera.startPreview();
+        }
+
+        @Override
+        public void stopPreview() {
+            _camera.stopPreview();
+        }
+
+        @Override
+        public void addCallbackBuffer(byte[] buffer) {
+            _camera.addCallbackBuffer(buffer);
+        }
+
+        @Override
+        public void setPreviewCallbackWithBuffer(final PreviewCallback callback) {
+            if (null == callback) {
+                _camera.setPreviewCallbackWithBuffer(null);
+                return;
+            }
+            _camera.setPreviewCallbackWithBuffer(new Camera.PreviewCallback() {
+                @Override
+                public void onPreviewFrame(byte[] data, Camera camera) {
+                    callback.onPreviewFrame(data, Camera1Device.this);
+                }
+            });
+        }
+
+        @Override
+        public void takePicture(final PictureCallback callback) {
+            _camera.takePicture(null, null, new Camera.PictureCallback() {
+                @Override
+                public void onPictureTaken(byte[] data, Camera camera) {
+                    callback.onPictureTaken(data, Camera1Device.this);
+                }
+            });
+        }
+
+        @Override
+        public void release() {
+            _camera.release();
+        }
+
+        @Override
+        public Camera getCamera() {
+            return _camera;
+        }
+    }
+}
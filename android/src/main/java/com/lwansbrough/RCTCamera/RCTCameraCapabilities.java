@@ -0,0 +1,247 @@
+package com.lwansbrough.RCTCamera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Camera;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable snapshot of what a camera supports, built once from its parameters.
+ *
+ * Sizes are sorted by area, then aspect ratio, so best-fit lookups binary search instead of rescanning the
+ * supported sizes lists. Focus and flash modes are stored as bitsets. Snapshots are persisted per camera
+ * index and keyed by the build fingerprint, so later cold starts don't have to open the camera to get them.
+ */
+class RCTCameraCapabilities {
+    private static final String PREFERENCES_NAME = "RCTCameraCapabilities";
+    private static final String FINGERPRINT_KEY = "fingerprint";
+
+    private static final String[] FOCUS_MODES = {
+            Camera.Parameters.FOCUS_MODE_AUTO,
+            Camera.Parameters.FOCUS_MODE_INFINITY,
+            Camera.Parameters.FOCUS_MODE_MACRO,
+            Camera.Parameters.FOCUS_MODE_FIXED,
+            Camera.Parameters.FOCUS_MODE_EDOF,
+            Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO,
+            Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE,
+    };
+    private static final String[] FLASH_MODES = {
+            Camera.Parameters.FLASH_MODE_OFF,
+            Camera.Parameters.FLASH_MODE_AUTO,
+            Camera.Parameters.FLASH_MODE_ON,
+            Camera.Parameters.FLASH_MODE_RED_EYE,
+            Camera.Parameters.FLASH_MODE_TORCH,
+    };
+
+    private static final Comparator<Size> SIZE_COMPARATOR = new Comparator<Size>() {
+        @Override
+        public int compare(Size lhs, Size rhs) {
+            if (lhs.area != rhs.area) {
+                return lhs.area < rhs.area ? -1 : 1;
+            }
+            return Float.compare(lhs.aspectRatio, rhs.aspectRatio);
+        }
+    };
+
+    public final Size[] previewSizes;
+    public final Size[] pictureSizes;
+    public final Size[] videoSizes;
+    private final int _focusModes;
+    private final int _flashModes;
+
+    private RCTCameraCapabilities(Size[] previewSizes, Size[] pictureSizes, Size[] videoSizes, int focusModes, int flashModes) {
+        Arrays.sort(previewSizes, SIZE_COMPARATOR);
+        Arrays.sort(pictureSizes, SIZE_COMPARATOR);
+        Arrays.sort(videoSizes, SIZE_COMPARATOR);
+        this.previewSizes = previewSizes;
+        this.pictureSizes = pictureSizes;
+        this.videoSizes = videoSizes;
+        _focusModes = focusModes;
+        _flashModes = flashModes;
+    }
+
+    public static RCTCameraCapabilities fromParameters(RCTCameraParameters parameters) {
+        String previewSizes = getSupportedValues(parameters, RCTCameraParameters.KEY_PREVIEW_SIZE);
+        String videoSizes = parameters.get(RCTCameraParameters.KEY_VIDEO_SIZE + RCTCameraParameters.SUPPORTED_VALUES_SUFFIX);
+        // no separate video sizes means video is recorded at preview sizes
+        return new RCTCameraCapabilities(
+                parseSizes(previewSizes),
+                parseSizes(getSupportedValues(parameters, RCTCameraParameters.KEY_PICTURE_SIZE)),
+                parseSizes(null != videoSizes ? videoSizes : previewSizes),
+                toBitset(FOCUS_MODES, getSupportedValues(parameters, RCTCameraParameters.KEY_FOCUS_MODE)),
+                toBitset(FLASH_MODES, getSupportedValues(parameters, RCTCameraParameters.KEY_FLASH_MODE)));
+    }
+
+    public boolean hasFocusMode(String focusMode) {
+        return contains(FOCUS_MODES, _focusModes, focusMode);
+    }
+
+    public boolean hasFlashMode(String flashMode) {
+        return contains(FLASH_MODES, _flashModes, flashMode);
+    }
+
+    public boolean hasFlash() {
+        return _flashModes != 0;
+    }
+
+    /**
+     * Largest size fitting in the given bounds, or null if none does.
+     */
+    public static Size getBestSize(Size[] sizes, int width, int height) {
+        long maxArea = (long) width * height;
+        int low = 0;
+        int high = sizes.length - 1;
+        // find the last size whose area could still fit, then walk down to the first one that actually does
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sizes[mid].area <= maxArea) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = high; i >= 0; i--) {
+            if (sizes[i].width <= width && sizes[i].height <= height) {
+                return sizes[i];
+            }
+        }
+        return null;
+    }
+
+    public static Size getSmallestSize(Size[] sizes) {
+        return sizes.length == 0 ? null : sizes[0];
+    }
+
+    public static Size getMedianSize(Size[] sizes) {
+        return sizes.length == 0 ? null : sizes[sizes.length / 2];
+    }
+
+    public static boolean containsSize(Size[] sizes, int width, int height) {
+        for (Size size : sizes) {
+            if (size.width == width && size.height == height) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Load the persisted snapshot of the camera at the given index, or null if the device build changed
+     * or the camera was never probed.
+     */
+    public static RCTCameraCapabilities load(Context context, int cameraIndex) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        if (!Build.FINGERPRINT.equals(preferences.getString(FINGERPRINT_KEY, null))) {
+            preferences.edit().clear().putString(FINGERPRINT_KEY, Build.FINGERPRINT).apply();
+            return null;
+        }
+        String serialized = preferences.getString("camera_" + cameraIndex, null);
+        if (null == serialized) {
+            return null;
+        }
+        try {
+            return deserialize(serialized);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public void save(Context context, int cameraIndex) {
+        context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE)
+                .edit()
+                .putString(FINGERPRINT_KEY, Build.FINGERPRINT)
+                .putString("camera_" + cameraIndex, serialize())
+                .apply();
+    }
+
+    // format: previewSizes;pictureSizes;videoSizes;focusModes;flashModes, sizes as comma separated WxH
+    private String serialize() {
+        StringBuilder builder = new StringBuilder();
+        appendSizes(builder, previewSizes);
+        builder.append(';');
+        appendSizes(builder, pictureSizes);
+        builder.append(';');
+        appendSizes(builder, videoSizes);
+        builder.append(';').append(_focusModes).append(';').append(_flashModes);
+        return builder.toString();
+    }
+
+    private static RCTCameraCapabilities deserialize(String serialized) {
+        String[] parts = serialized.split(";", -1);
+        return new RCTCameraCapabilities(
+                parseSizes(parts[0]),
+                parseSizes(parts[1]),
+                parseSizes(parts[2]),
+                Integer.parseInt(parts[3]),
+                Integer.parseInt(parts[4]));
+    }
+
+    private static void appendSizes(StringBuilder builder, Size[] sizes) {
+        for (int i = 0; i < sizes.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(sizes[i].width).append('x').append(sizes[i].height);
+        }
+    }
+
+    private static Size[] parseSizes(String serialized) {
+        if (serialized.isEmpty()) {
+            return new Size[0];
+        }
+        String[] parts = serialized.split(",");
+        Size[] sizes = new Size[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            int separator = parts[i].indexOf('x');
+            sizes[i] = new Size(
+                    Integer.parseInt(parts[i].substring(0, separator)),
+                    Integer.parseInt(parts[i].substring(separator + 1)));
+        }
+        return sizes;
+    }
+
+    // comma separated supported values of a parameter, empty if there are none
+    private static String getSupportedValues(RCTCameraParameters parameters, String key) {
+        String values = parameters.get(key + RCTCameraParameters.SUPPORTED_VALUES_SUFFIX);
+        return null != values ? values : "";
+    }
+
+    private static int toBitset(String[] modes, String supportedModes) {
+        List<String> supported = Arrays.asList(supportedModes.split(","));
+        int bitset = 0;
+        for (int i = 0; i < modes.length; i++) {
+            if (supported.contains(modes[i])) {
+                bitset |= 1 << i;
+            }
+        }
+        return bitset;
+    }
+
+    private static boolean contains(String[] modes, int bitset, String mode) {
+        for (int i = 0; i < modes.length; i++) {
+            if (modes[i].equals(mode)) {
+                return (bitset & (1 << i)) != 0;
+            }
+        }
+        return false;
+    }
+
+    public static class Size {
+        public final int width;
+        public final int height;
+        public final long area;
+        public final float aspectRatio;
+
+        public Size(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.area = (long) width * height;
+            this.aspectRatio = (float) width / height;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package com.lwansbrough.RCTCamera;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded queue in front of the camera for still captures.
+ *
+ * Only one capture is handed to the camera HAL at a time, and a new one is only dispatched while fewer than
+ * maxInFlight captures are still being encoded or written. Captures beyond maxQueued are either rejected or
+ * coalesced into the last queued capture, which then settles every promise attached to it. A picture the
+ * HAL hasn't delivered within pictureTimeout is abandoned, so a lost callback can't block the queue.
+ */
+class RCTCameraCapturePipeline {
+    public static final String WHEN_FULL_REJECT = "reject";
+    public static final String WHEN_FULL_COALESCE = "coalesce";
+    public static final int DEFAULT_PICTURE_TIMEOUT = 5000;
+
+    interface Dispatcher {
+        /**
+         * Hand the capture to the camera. Must call onPictureTaken() once the HAL returned the data, then
+         * settle the capture, which is a Promise, once it has been stored. If the picture doesn't arrive
+         * within getPictureTimeout() or is lost, e.g. because the preview was stopped, must call
+         * onPictureAborted() instead.
+         */
+        void dispatch(Capture capture);
+    }
+
+    private final Dispatcher _dispatcher;
+    private final ArrayDeque<Capture> _queue = new ArrayDeque<>();
+    private int _maxQueued = 4;
+    private int _maxInFlight = 2;
+    private String _whenFull = WHEN_FULL_REJECT;
+    private int _pictureTimeout = DEFAULT_PICTURE_TIMEOUT;
+    private Capture _takingPicture = null;
+    private int _inFlight = 0;
+
+    private int _rejected = 0;
+    private int _coalesced = 0;
+    private int _abortedPictures = 0;
+    private final StageStats _queueStats = new StageStats();
+    private final StageStats _pictureStats = new StageStats();
+    private final StageStats _storeStats = new StageStats();
+
+    public RCTCameraCapturePipeline(Dispatcher dispatcher) {
+        _dispatcher = dispatcher;
+    }
+
+    public synchronized void configure(ReadableMap options) {
+        if (options.hasKey("maxQueued")) {
+            _maxQueued = Math.max(0, options.getInt("maxQueued"));
+        }
+        if (options.hasKey("maxInFlight")) {
+            _maxInFlight = Math.max(1, options.getInt("maxInFlight"));
+        }
+        if (options.hasKey("whenFull")) {
+            _whenFull = options.getString("whenFull");
+        }
+        if (options.hasKey("pictureTimeout")) {
+            _pictureTimeout = Math.max(1, options.getInt("pictureTimeout"));
+        }
+        dispatchNext();
+    }
+
+    /**
+     * @param requestedAt System.nanoTime() of the capture() call, for the end-to-end latency metrics
+     */
+    public void submit(ReadableMap options, int deviceOrientation, long requestedAt, Promise promise) {
+        synchronized (this) {
+            if (_queue.size() >= _maxQueued && (null != _takingPicture || _inFlight >= _maxInFlight)) {
+                if (WHEN_FULL_COALESCE.equals(_whenFull) && !_queue.isEmpty()) {
+                    _queue.peekLast().promises.add(promise);
+                    _coalesced++;
+                    return;
+                }
+                _rejected++;
+            } else {
+                _queue.add(new Capture(options, deviceOrientation, requestedAt, promise));
+                dispatchNext();
+                return;
+            }
+        }
+        promise.reject("Capture queue is full.");
+    }
+
+    /**
+     * Milliseconds to wait for the HAL to deliver a picture.
+     */
+    public synchronized int getPictureTimeout() {
+        return _pictureTimeout;
+    }
+
+    public synchronized WritableMap getStats() {
+        WritableMap stats = new WritableNativeMap();
+        stats.putInt("queued", _queue.size());
+        stats.putInt("inFlight", _inFlight);
+        stats.putBoolean("takingPicture", null != _takingPicture);
+        stats.putInt("maxQueued", _maxQueued);
+        stats.putInt("maxInFlight", _maxInFlight);
+        stats.putString("whenFull", _whenFull);
+        stats.putInt("rejected", _rejected);
+        stats.putInt("coalesced", _coalesced);
+        stats.putInt("abortedPictures", _abortedPictures);
+        stats.putInt("pictureTimeoutMs", _pictureTimeout);
+        stats.putMap("queue", _queueStats.toMap());
+        stats.putMap("picture", _pictureStats.toMap());
+        stats.putMap("store", _storeStats.toMap());
+        return stats;
+    }
+
+    private void dispatchNext() {
+        if (null != _takingPicture || _inFlight >= _maxInFlight || _queue.isEmpty()) {
+            return;
+        }
+        Capture capture = _queue.poll();
+        capture.dispatchedAt = RCTCameraMetrics.record(RCTCameraMetrics.STAGE_QUEUE, capture.enqueuedAt);
+        _queueStats.record((capture.dispatchedAt - capture.enqueuedAt) / 1000000);
+        _takingPicture = capture;
+        _inFlight++;
+        _dispatcher.dispatch(capture);
+    }
+
+    private synchronized void onPictureTaken(Capture capture) {
+        if (_takingPicture != capture) {
+            return;
+        }
+        _takingPicture = null;
+        capture.pictureTakenAt = RCTCameraMetrics.record(RCTCameraMetrics.STAGE_SHUTTER_LAG, capture.requestedAt);
+        _pictureStats.record((capture.pictureTakenAt - capture.dispatchedAt) / 1000000);
+        dispatchNext();
+    }
+
+    private synchronized void onPictureAborted() {
+        _abortedPictures++;
+    }
+
+    private synchronized void onSettled(Capture capture, long settledAt) {
+        if (_takingPicture == capture) {
+            _takingPicture = null;
+        } else if (capture.pictureTakenAt > 0) {
+            _storeStats.record((settledAt - capture.pictureTakenAt) / 1000000);
+        }
+        _inFlight--;
+        dispatchNext();
+    }
+
+    /**
+     * A queued capture. Settling it settles every promise coalesced into it.
+     */
+    class Capture implements Promise {
+        public final ReadableMap options;
+        public final int deviceOrientation;
+        private final List<Promise> promises = new ArrayList<>(1);
+        // System.nanoTime() timestamps
+        private final long requestedAt;
+        private final long enqueuedAt;
+        private long dispatchedAt = 0;
+        private long pictureTakenAt = 0;
+        private boolean _settled = false;
+
+        private Capture(ReadableMap options, int deviceOrientation, long requestedAt, Promise promise) {
+            this.options = options;
+            this.deviceOrientation = deviceOrientation;
+            this.requestedAt = requestedAt;
+            this.enqueuedAt = System.nanoTime();
+            this.promises.add(promise);
+        }
+
+        public void onPictureTaken() {
+            RCTCameraCapturePipeline.this.onPictureTaken(this);
+        }
+
+        /**
+         * Give up on a picture the HAL will never deliver, rejecting the capture and freeing the camera for
+         * the next one.
+         */
+        public void onPictureAborted(String reason) {
+            RCTCameraCapturePipeline.this.onPictureAborted();
+            reject(reason);
+        }
+
+        @Override
+        public void resolve(Object value) {
+            long settledAt = System.nanoTime();
+            List<Promise> promises = settle(settledAt);
+            if (null == promises) {
+                return;
+            }
+            for (int i = 0; i < promises.size(); i++) {
+                // a native map can only be sent over the bridge once
+                promises.get(i).resolve(i > 0 && value instanceof ReadableMap ? copy((ReadableMap) value) : value);
+            }
+            if (pictureTakenAt > 0) {
+                RCTCameraMetrics.record(RCTCameraMetrics.STAGE_STORE, pictureTakenAt, settledAt);
+            }
+            RCTCameraMetrics.record(RCTCameraMetrics.STAGE_RESOLVE, settledAt);
+            RCTCameraMetrics.record(RCTCameraMetrics.STAGE_TOTAL, requestedAt);
+        }
+
+        @Override
+        public void reject(Throwable reason) {
+            List<Promise> promises = settle(System.nanoTime());
+            if (null == promises) {
+                return;
+            }
+            for (Promise promise : promises) {
+                promise.reject(reason);
+            }
+        }
+
+        @Override
+        public void reject(String reason) {
+            List<Promise> promises = settle(System.nanoTime());
+            if (null == promises) {
+                return;
+            }
+            for (Promise promise : promises) {
+                promise.reject(reason);
+            }
+        }
+
+        private List<Promise> settle(long settledAt) {
+            synchronized (RCTCameraCapturePipeline.this) {
+                if (_settled) {
+                    return null;
+                }
+                _settled = true;
+                onSettled(this, settledAt);
+                return new ArrayList<>(promises);
+            }
+        }
+    }
+
+    private static WritableMap copy(ReadableMap map) {
+        WritableMap copy = new WritableNativeMap();
+        ReadableMapKeySetIterator iterator = map.keySetIterator();
+        while (iterator.hasNextKey()) {
+            String key = iterator.nextKey();
+            switch (map.getType(key)) {
+                case Boolean:
+                    copy.putBoolean(key, map.getBoolean(key));
+                    break;
+                case Number:
+                    copy.putDouble(key, map.getDouble(key));
+                    break;
+                case String:
+                    copy.putString(key, map.getString(key));
+                    break;
+                case Map:
+                    copy.putMap(key, copy(map.getMap(key)));
+                    break;
+                default:
+                    copy.putNull(key);
+            }
+        }
+        return copy;
+    }
+
+    private static class StageStats {
+        public int count = 0;
+        public long total = 0;
+        public long max = 0;
+
+        public void record(long duration) {
+            count++;
+            total += duration;
+            max = Math.max(max, duration);
+        }
+
+        public WritableMap toMap() {
+            WritableMap map = new WritableNativeMap();
+            map.putInt("count", count);
+            map.putDouble("averageMs", count == 0 ? 0 : (double) total / count);
+            map.putDouble("maxMs", max);
+            return map;
+        }
+    }
+}
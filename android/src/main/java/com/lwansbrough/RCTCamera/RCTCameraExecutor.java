@@ -0,0 +1,164 @@
+package com.lwansbrough.RCTCamera;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single thread owning every camera backend call.
+ *
+ * Cameras opened from this thread also deliver their callbacks (picture, preview, errors) on it,
+ * so the UI and bridge threads only ever enqueue commands and never block on the camera HAL.
+ */
+public class RCTCameraExecutor {
+
+    public static final int COMMAND_OPEN = 0;
+    public static final int COMMAND_CONFIGURE = 1;
+    public static final int COMMAND_START_PREVIEW = 2;
+    public static final int COMMAND_CAPTURE = 3;
+    public static final int COMMAND_RELEASE = 4;
+    public static final int COMMAND_FRAME = 5;
+
+    private static final String[] COMMAND_NAMES = {"open", "configure", "startPreview", "capture", "release", "frame"};
+
+    private static final RCTCameraExecutor ourInstance = new RCTCameraExecutor();
+    private final HandlerThread _thread;
+    private final Handler _handler;
+    private final CommandStats[] _stats;
+    private Command _tail = null;
+
+    public static RCTCameraExecutor getInstance() {
+        return ourInstance;
+    }
+
+    /**
+     * Enqueue a command of the given type. A configure command posted right behind another configure
+     * command that has not started yet is merged into it, so bursts of prop updates run as one command.
+     */
+    public void execute(int type, Runnable runnable) {
+        synchronized (this) {
+            if (type == COMMAND_CONFIGURE && null != _tail && _tail.type == COMMAND_CONFIGURE) {
+                _tail.runnables.add(runnable);
+                _stats[type].merged++;
+                return;
+            }
+            Command command = new Command(type, runnable);
+            _tail = command;
+            _handler.post(command);
+        }
+    }
+
+    /**
+     * Enqueue a command to run after the given delay. Delayed commands are never merged, and their queue wait
+     * includes the delay.
+     */
+    public void executeDelayed(int type, Runnable runnable, long delayMillis) {
+        _handler.postDelayed(new Command(type, runnable), delayMillis);
+    }
+
+    /**
+     * Post a task without command bookkeeping, for per-frame work that must not allocate.
+     */
+    public void postFrameTask(Runnable runnable) {
+        _handler.post(runnable);
+    }
+
+    public boolean isCameraThread() {
+        return Looper.myLooper() == _thread.getLooper();
+    }
+
+    public Looper getLooper() {
+        return _thread.getLooper();
+    }
+
+    public synchronized WritableMap getStats() {
+        WritableMap stats = new WritableNativeMap();
+        for (int i = 0; i < _stats.length; i++) {
+            stats.putMap(COMMAND_NAMES[i], _stats[i].toMap());
+        }
+        return stats;
+    }
+
+    private void onCommandStarted(Command command) {
+        synchronized (this) {
+            if (_tail == command) {
+                _tail = null;
+            }
+        }
+    }
+
+    private synchronized void onCommandFinished(Command command, long startedAt, long finishedAt) {
+        _stats[command.type].record(startedAt - command.enqueuedAt, finishedAt - startedAt);
+    }
+
+    private RCTCameraExecutor() {
+        _thread = new HandlerThread("RCTCameraThread");
+        _thread.start();
+        _handler = new Handler(_thread.getLooper());
+        _stats = new CommandStats[COMMAND_NAMES.length];
+        for (int i = 0; i < _stats.length; i++) {
+            _stats[i] = new CommandStats();
+        }
+    }
+
+    private class Command implements Runnable {
+        public final int type;
+        public final long enqueuedAt;
+        public final List<Runnable> runnables = new ArrayList<>(1);
+
+        public Command(int type, Runnable runnable) {
+            this.type = type;
+            this.enqueuedAt = SystemClock.elapsedRealtime();
+            this.runnables.add(runnable);
+        }
+
+        @Override
+        public void run() {
+            onCommandStarted(this);
+            long startedAt = SystemClock.elapsedRealtime();
+            for (Runnable runnable : runnables) {
+                try {
+                    runnable.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            onCommandFinished(this, startedAt, SystemClock.elapsedRealtime());
+        }
+    }
+
+    private static class CommandStats {
+        public int count = 0;
+        public int merged = 0;
+        public long totalWait = 0;
+        public long maxWait = 0;
+        public long totalExecution = 0;
+        public long maxExecution = 0;
+
+        public void record(long wait, long execution) {
+            count++;
+            totalWait += wait;
+            maxWait = Math.max(maxWait, wait);
+            totalExecution += execution;
+            maxExecution = Math.max(maxExecution, execution);
+        }
+
+        public WritableMap toMap() {
+            WritableMap map = new WritableNativeMap();
+            map.putInt("count", count);
+            map.putInt("merged", merged);
+            map.putDouble("averageWaitMs", count == 0 ? 0 : (double) totalWait / count);
+            map.putDouble("maxWaitMs", maxWait);
+            map.putDouble("averageExecutionMs", count == 0 ? 0 : (double) totalExecution / count);
+            map.putDouble("maxExecutionMs", maxExecution);
+            return map;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package com.lwansbrough.RCTCamera;
+
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deterministic stand-in for the camera hardware, for regression and performance tests without a device.
+ *
+ * A back and a front camera are simulated. While previewing, each camera produces NV21 frames at a fixed
+ * interval into the queued callback buffers: a diagonal luma gradient shifted by the frame number, so every
+ * frame differs and every run produces the same frames. Pictures are real, decodable baseline JPEGs of the
+ * configured picture size, a uniform grey image padded with comment segments to a realistic file size, and
+ * tagged with the Exif orientation of the rotation parameter like a HAL would. Opening, setting parameters
+ * and taking pictures take as long as configured.
+ *
+ * Callbacks run on the given executor, or on the camera thread by default. The camera thread is an Android
+ * HandlerThread, so off the device, e.g. in JVM tests and benchmarks, an executor must be supplied.
+ */
+public class RCTCameraFakeBackend implements RCTCameraBackend {
+
+    public static final String DEFAULT_BACK_PARAMETERS = "preview-size=1280x720;"
+            + "preview-size-values=1920x1080,1280x720,960x540,640x480,320x240;"
+            + "preview-format=yuv420sp;preview-format-values=yuv420sp;"
+            + "picture-size=1600x1200;picture-size-values=4000x3000,3264x2448,1600x1200,640x480;"
+            + "jpeg-quality=95;rotation=0;recording-hint=false;"
+            + "focus-mode=auto;focus-mode-values=auto,infinity,continuous-video,continuous-picture;"
+            + "flash-mode=off;flash-mode-values=off,auto,on,torch";
+    public static final String DEFAULT_FRONT_PARAMETERS = "preview-size=1280x720;"
+            + "preview-size-values=1280x720,960x540,640x480,320x240;"
+            + "preview-format=yuv420sp;preview-format-values=yuv420sp;"
+            + "picture-size=1280x960;picture-size-values=2560x1920,1280x960,640x480;"
+            + "jpeg-quality=95;rotation=0;recording-hint=false;"
+            + "focus-mode=fixed;focus-mode-values=fixed";
+
+    // largest payload of a single JPEG segment
+    private static final int MAX_SEGMENT_PAYLOAD = 65533;
+
+    private final Executor _callbackExecutor;
+    private final ScheduledExecutorService _sensor;
+    private final String[] _parameters = {DEFAULT_BACK_PARAMETERS, DEFAULT_FRONT_PARAMETERS};
+    private final int[] _facings = {CAMERA_FACING_BACK, CAMERA_FACING_FRONT};
+    private final int[] _orientations = {90, 270};
+    private volatile long _openLatency = 0;
+    private volatile long _parametersLatency = 0;
+    private volatile long _pictureLatency = 150;
+    private volatile long _frameInterval = 33;
+    private volatile float _jpegBytesPerPixel = 0.125f;
+
+    /**
+     * For use on the device, preview frames and pictures are delivered on the camera thread.
+     */
+    public RCTCameraFakeBackend() {
+        this(null);
+    }
+
+    /**
+     * @param callbackExecutor where preview frames and pictures are delivered, the camera thread if null,
+     *                         which needs a device
+     */
+    public RCTCameraFakeBackend(Executor callbackExecutor) {
+        _callbackExecutor = callbackExecutor;
+        _sensor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "RCTCameraFakeSensor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public RCTCameraFakeBackend setOpenLatency(long latencyMs) {
+        _openLatency = latencyMs;
+        return this;
+    }
+
+    public RCTCameraFakeBackend setParametersLatency(long latencyMs) {
+        _parametersLatency = latencyMs;
+        return this;
+    }
+
+    /**
+     * Time from takePicture() to the JPEG being delivered.
+     */
+    public RCTCameraFakeBackend setPictureLatency(long latencyMs) {
+        _pictureLatency = latencyMs;
+        return this;
+    }
+
+    public RCTCameraFakeBackend setFrameInterval(long intervalMs) {
+        _frameInterval = Math.max(1, intervalMs);
+        return this;
+    }
+
+    /**
+     * Size of the pictures taken, relative to their pixel count.
+     */
+    public RCTCameraFakeBackend setJpegBytesPerPixel(float bytesPerPixel) {
+        _jpegBytesPerPixel = bytesPerPixel;
+        return this;
+    }
+
+    /**
+     * Replace the flattened parameters a camera starts with when it is opened.
+     */
+    public RCTCameraFakeBackend setDefaultParameters(int index, String parameters) {
+        synchronized (_parameters) {
+            _parameters[index] = parameters;
+        }
+        return this;
+    }
+
+    @Override
+    public int getNumberOfCameras() {
+        return _facings.length;
+    }
+
+    @Override
+    public void getCameraInfo(int index, CameraInfo info) {
+        info.facing = _facings[index];
+        info.orientation = _orientations[index];
+    }
+
+    @Override
+    public Device open(int index) {
+        sleep(_openLatency);
+        synchronized (_parameters) {
+            return new FakeDevice(_parameters[index]);
+        }
+    }
+
+    /**
+     * Fill an NV21 buffer with the synthetic frame of the given number.
+     */
+    static void fillFrame(byte[] data, int width, int height, int frame) {
+        int index = 0;
+        for (int y = 0; y < height; y++) {
+            int value = y + frame * 2;
+            for (int x = 0; x < width; x++) {
+                data[index++] = (byte) (value + x);
+            }
+        }
+        // neutral chroma
+        int end = width * height * 3 / 2;
+        for (; index < end; index++) {
+            data[index] = (byte) 128;
+        }
+    }
+
+    /**
+     * Baseline JPEG of a uniform grey image of the given size, padded with comment segments to at least
+     * the given length.
+     */
+    static byte[] createJpeg(int width, int height, int sequence, int length) {
+        // every 8x8 block is coded as a zero DC difference and an end of block, one bit each
+        long blocks = (long) ((width + 7) / 8) * ((height + 7) / 8);
+        int scanLength = (int) ((blocks * 2 + 7) / 8);
+        byte[] header = {
+                (byte) 0xff, (byte) 0xdb, 0x00, 0x43, 0x00,                     // DQT, table 0, all ones
+                1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+                (byte) 0xff, (byte) 0xc0, 0x00, 0x0b, 0x08,                     // SOF0, 8 bit precision
+                (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width,
+                0x01, 0x01, 0x11, 0x00,                                         // one component, table 0
+                (byte) 0xff, (byte) 0xc4, 0x00, 0x14, 0x00,                     // DHT, DC table 0
+                0x01, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x00,       // a single 1 bit code: 0
+                (byte) 0xff, (byte) 0xc4, 0x00, 0x14, 0x10,                     // DHT, AC table 0
+                0x01, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0x00,       // a single 1 bit code: EOB
+                (byte) 0xff, (byte) 0xda, 0x00, 0x08, 0x01, 0x01, 0x00, 0x00, 0x3f, 0x00, // SOS
+        };
+        int unpadded = 2 + header.length + scanLength + 2;
+        int padding = Math.max(0, length - unpadded);
+        int segments = (padding + MAX_SEGMENT_PAYLOAD + 3) / (MAX_SEGMENT_PAYLOAD + 4);
+        int remaining = Math.max(0, padding - segments * 4);
+        byte[] jpeg = new byte[unpadded + segments * 4 + remaining];
+
+        int offset = 0;
+        jpeg[offset++] = (byte) 0xff;
+        jpeg[offset++] = (byte) 0xd8;
+        for (int i = 0; i < segments; i++) {
+            int payload = Math.min(MAX_SEGMENT_PAYLOAD, remaining);
+            remaining -= payload;
+            jpeg[offset++] = (byte) 0xff;
+            jpeg[offset++] = (byte) 0xfe;
+            jpeg[offset++] = (byte) ((payload + 2) >> 8);
+            jpeg[offset++] = (byte) (payload + 2);
+            for (int j = 0; j < payload; j++) {
+                jpeg[offset++] = (byte) ((sequence + j) & 0x7f);
+            }
+        }
+        System.arraycopy(header, 0, jpeg, offset, header.length);
+        offset += header.length;
+        // scan data is all zero bits, the last byte padded with ones
+        offset += scanLength;
+        int spareBits = (int) (scanLength * 8L - blocks * 2);
+        jpeg[offset - 1] = (byte) ((1 << spareBits) - 1);
+        jpeg[offset++] = (byte) 0xff;
+        jpeg[offset] = (byte) 0xd9;
+        return jpeg;
+    }
+
+    private void deliver(int command, Runnable runnable) {
+        if (null != _callbackExecutor) {
+            _callbackExecutor.execute(runnable);
+        } else {
+            RCTCameraExecutor.getInstance().execute(command, runnable);
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class FakeDevice implements Device, Runnable {
+        private final Map<String, String> _values = new LinkedHashMap<>(64);
+        private final ArrayDeque<byte[]> _buffers = new ArrayDeque<>();
+        private PreviewCallback _previewCallback = null;
+        private ScheduledFuture<?> _frames = null;
+        private boolean _released = false;
+        private int _frame = 0;
+        private int _pictures = 0;
+
+        private FakeDevice(String parameters) {
+            RCTCameraParameters.unflatten(parameters, _values);
+        }
+
+        @Override
+        public synchronized String getParameters() {
+            return RCTCameraParameters.flatten(_values);
+        }
+
+        @Override
+        public void setParameters(String parameters) {
+            sleep(_parametersLatency);
+            Map<String, String> values = new LinkedHashMap<>(_values);
+            RCTCameraParameters.unflatten(parameters, values);
+            if (!isSupported(values, RCTCameraParameters.KEY_PREVIEW_SIZE)
+                    || !isSupported(values, RCTCameraParameters.KEY_PICTURE_SIZE)) {
+                throw new RuntimeException("setParameters failed");
+            }
+            synchronized (this) {
+                _values.clear();
+                _values.putAll(values);
+            }
+        }
+
+        @Override
+        public void setDisplayOrientation(int degrees) {
+        }
+
+        @Override
+        public void setPreviewTexture(SurfaceTexture surface) {
+        }
+
+        @Override
+        public synchronized void startPreview() {
+            if (_released || null != _frames) {
+                return;
+            }
+            long interval = _frameInterval;
+            _frames = _sensor.scheduleAtFixedRate(this, interval, interval, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void stopPreview() {
+            if (null != _frames) {
+                _frames.cancel(false);
+                _frames = null;
+            }
+        }
+
+        @Override
+        public synchronized void addCallbackBuffer(byte[] buffer) {
+            _buffers.add(buffer);
+        }
+
+        @Override
+        public synchronized void setPreviewCallbackWithBuffer(PreviewCallback callback) {
+            _previewCallback = callback;
+            if (null == callback) {
+                _buffers.clear();
+            }
+        }
+
+        @Override
+        public void takePicture(final PictureCallback callback) {
+            final RCTCameraCapabilities.Size size;
+            final int rotation;
+            final int sequence;
+            synchronized (this) {
+                stopPreview();
+                size = RCTCameraParameters.parseSize(_values.get(RCTCameraParameters.KEY_PICTURE_SIZE));
+                String value = _values.get(RCTCameraParameters.KEY_ROTATION);
+                rotation = null != value ? Integer.parseInt(value) : 0;
+                sequence = _pictures++;
+            }
+            _sensor.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    int length = (int) (size.area * _jpegBytesPerPixel);
+                    final byte[] jpeg = RCTCameraJpeg.withOrientation(createJpeg(size.width, size.height, sequence, length), rotation);
+                    deliver(RCTCameraExecutor.COMMAND_CAPTURE, new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onPictureTaken(jpeg, FakeDevice.this);
+                        }
+                    });
+                }
+            }, _pictureLatency, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public synchronized void release() {
+            stopPreview();
+            _previewCallback = null;
+            _buffers.clear();
+            _released = true;
+        }
+
+        @Override
+        public Camera getCamera() {
+            return null;
+        }
+
+        // sensor thread, produces one preview frame
+        @Override
+        public void run() {
+            final PreviewCallback callback;
+            final byte[] buffer;
+            RCTCameraCapabilities.Size size;
+            int frame;
+            synchronized (this) {
+                frame = _frame++;
+                // like Camera1, frames without a queued buffer are dropped
+                if (null == _previewCallback || _buffers.isEmpty()) {
+                    return;
+                }
+                callback = _previewCallback;
+                buffer = _buffers.poll();
+                size = RCTCameraParameters.parseSize(_values.get(RCTCameraParameters.KEY_PREVIEW_SIZE));
+            }
+            final boolean fits = buffer.length >= size.width * size.height * 3 / 2;
+            if (fits) {
+                fillFrame(buffer, size.width, size.height, frame);
+            }
+            deliver(RCTCameraExecutor.COMMAND_FRAME, new Runnable() {
+                @Override
+                public void run() {
+                    // a buffer that is too small is taken off the queue, the callback gets null instead
+                    callback.onPreviewFrame(fits ? buffer : null, FakeDevice.this);
+                }
+            });
+        }
+
+        private boolean isSupported(Map<String, String> values, String key) {
+            String value = values.get(key);
+            String supported = values.get(key + RCTCameraParameters.SUPPORTED_VALUES_SUFFIX);
+            if (null == value || null == supported) {
+                return true;
+            }
+            for (String candidate : supported.split(",")) {
+                if (candidate.equals(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
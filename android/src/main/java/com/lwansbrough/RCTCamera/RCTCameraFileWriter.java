@@ -0,0 +1,202 @@
+package com.lwansbrough.RCTCamera;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.MediaStore;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * I/O stage for captures going to disk or the camera roll, so the camera thread never waits on storage.
+ *
+ * Data is written through a FileChannel straight from the captured array into a temporary file next to the
+ * target, optionally fsynced, then renamed over the target. Readers therefore never see a partial file.
+ * Camera roll captures stream the original JPEG bytes into the MediaStore, without decoding or re-encoding
+ * them, so EXIF data is kept as is. Recorded videos are copied into the MediaStore the same way.
+ */
+class RCTCameraFileWriter {
+
+    interface Callback {
+        /**
+         * @param uri       where the data has been written to
+         * @param duration  time spent writing, in milliseconds
+         * @param allocated bytes allocated to copy the data while writing it
+         */
+        void onWritten(Uri uri, long duration, int allocated);
+
+        void onError(String message);
+    }
+
+    // buffer copying recorded videos into the MediaStore
+    public static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private static final RCTCameraFileWriter ourInstance = new RCTCameraFileWriter();
+    private final ExecutorService _executor;
+
+    public static RCTCameraFileWriter getInstance() {
+        return ourInstance;
+    }
+
+    /**
+     * Run a task on the I/O thread, after every write queued before it.
+     */
+    public void execute(Runnable task) {
+        _executor.execute(task);
+    }
+
+    public void write(final byte[] data, final File file, final boolean sync, final Callback callback) {
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startedAt = SystemClock.elapsedRealtime();
+                try {
+                    writeNow(data, file, sync);
+                } catch (IOException e) {
+                    callback.onError("Error accessing file: " + e.getMessage());
+                    return;
+                }
+                // the channel writes straight from the captured array
+                callback.onWritten(Uri.fromFile(file), SystemClock.elapsedRealtime() - startedAt, 0);
+            }
+        });
+    }
+
+    public void insertImage(final ContentResolver contentResolver, final byte[] data, final String title,
+                            final String description, final Callback callback) {
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long startedAt = SystemClock.elapsedRealtime();
+                Uri uri;
+                try {
+                    uri = insertImageNow(contentResolver, data, title, description);
+                } catch (Exception e) {
+                    callback.onError("Error inserting image: " + e.getMessage());
+                    return;
+                }
+                // the stream is handed the captured array as is
+                callback.onWritten(uri, SystemClock.elapsedRealtime() - startedAt, 0);
+            }
+        });
+    }
+
+    /**
+     * Insert a JPEG into the camera roll on the calling thread.
+     */
+    public static Uri insertImageNow(ContentResolver contentResolver, final byte[] data, String title, String description) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.TITLE, title);
+        values.put(MediaStore.Images.Media.DESCRIPTION, description);
+        values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
+        values.put(MediaStore.Images.Media.DATE_TAKEN, System.currentTimeMillis());
+        return insertNow(contentResolver, MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values, new Content() {
+            @Override
+            public void writeTo(OutputStream stream) throws IOException {
+                stream.write(data);
+            }
+        });
+    }
+
+    /**
+     * Copy a recorded MP4 into the camera roll on the calling thread.
+     */
+    public static Uri insertVideoNow(ContentResolver contentResolver, final File file, String title, String description) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Video.Media.TITLE, title);
+        values.put(MediaStore.Video.Media.DESCRIPTION, description);
+        values.put(MediaStore.Video.Media.MIME_TYPE, "video/mp4");
+        values.put(MediaStore.Video.Media.DATE_TAKEN, System.currentTimeMillis());
+        return insertNow(contentResolver, MediaStore.Video.Media.EXTERNAL_CONTENT_URI, values, new Content() {
+            @Override
+            public void writeTo(OutputStream stream) throws IOException {
+                FileInputStream input = new FileInputStream(file);
+                try {
+                    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                    int read;
+                    while ((read = input.read(buffer)) != -1) {
+                        stream.write(buffer, 0, read);
+                    }
+                } finally {
+                    input.close();
+                }
+            }
+        });
+    }
+
+    private interface Content {
+        void writeTo(OutputStream stream) throws IOException;
+    }
+
+    private static Uri insertNow(ContentResolver contentResolver, Uri collection, ContentValues values, Content content) throws IOException {
+        Uri uri = contentResolver.insert(collection, values);
+        if (null == uri) {
+            throw new IOException("could not create media store entry");
+        }
+        OutputStream stream = null;
+        try {
+            stream = contentResolver.openOutputStream(uri);
+            if (null == stream) {
+                throw new IOException("could not open " + uri);
+            }
+            content.writeTo(stream);
+            stream.close();
+        } catch (IOException e) {
+            if (null != stream) {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            }
+            contentResolver.delete(uri, null, null);
+            throw e;
+        }
+        return uri;
+    }
+
+    /**
+     * Write on the calling thread.
+     */
+    public static void writeNow(byte[] data, File file, boolean sync) throws IOException {
+        File tempFile = new File(file.getParentFile(), "." + file.getName() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(tempFile);
+        try {
+            FileChannel channel = stream.getChannel();
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            if (sync) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            stream.close();
+            tempFile.delete();
+            throw e;
+        }
+        stream.close();
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("could not rename " + tempFile.getPath() + " to " + file.getPath());
+        }
+    }
+
+    private RCTCameraFileWriter() {
+        _executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "RCTCameraIOThread");
+            }
+        });
+    }
+}
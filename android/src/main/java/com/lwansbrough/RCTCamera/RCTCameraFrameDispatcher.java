@@ -0,0 +1,395 @@
+package com.lwansbrough.RCTCamera;
+
+import android.graphics.ImageFormat;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Feeds preview frames to the registered frame processors.
+ *
+ * Frames are delivered into a fixed ring of byte arrays through addCallbackBuffer. A slot goes back
+ * to the camera once every processor it was handed to is done with it, and a processor that is still busy
+ * with an earlier frame simply skips the new one. Slots, tasks and per-processor state are all created up
+ * front, so the steady state allocates nothing. Camera calls only happen on the camera thread.
+ *
+ * Captures can also ask for the next frame once, through requestFrame(). It comes from the same ring,
+ * so taking it neither restarts the preview nor keeps frames from the processors.
+ */
+class RCTCameraFrameDispatcher implements RCTCameraBackend.PreviewCallback {
+
+    /**
+     * One-shot receiver of the next preview frame, see requestFrame().
+     */
+    interface FrameRequest {
+        /**
+         * Called on the camera thread. The data belongs to the ring like a processor's frame: it must not be
+         * modified, and release must be posted with RCTCameraExecutor.postFrameTask() once it is no longer read.
+         * Calling requestFrame() again from here asks for the frame after this one.
+         */
+        void onFrame(byte[] data, int width, int height, long timestamp, Runnable release);
+
+        /**
+         * Called on the camera thread when the camera stopped previewing before a frame arrived.
+         */
+        void onCancel();
+    }
+
+    private static final RCTCameraFrameDispatcher ourInstance = new RCTCameraFrameDispatcher();
+    private final List<Registration> _registrations = new ArrayList<>();
+
+    // touched on the camera thread only
+    private RCTCameraBackend.Device _camera = null;
+    private int _cameraType = -1;
+    private int _width = 0;
+    private int _height = 0;
+    private Slot[] _slots = new Slot[0];
+    // pause() calls not yet matched by resume(), frames are delivered again once back at 0
+    private int _pauses = 0;
+    private List<FrameRequest> _requests = new ArrayList<>();
+    // requests being handed a frame, swapped with _requests so they can ask for the next one right away
+    private List<FrameRequest> _servedRequests = new ArrayList<>();
+
+    public static RCTCameraFrameDispatcher getInstance() {
+        return ourInstance;
+    }
+
+    /**
+     * Register a processor running on the given executor, or on a dedicated thread if it is null.
+     */
+    public void register(RCTCameraFrameProcessor processor, Executor executor) {
+        boolean ownsExecutor = null == executor;
+        if (ownsExecutor) {
+            final String name = "RCTCameraFrameProcessor-" + processor.getName();
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    return new Thread(runnable, name);
+                }
+            });
+        }
+        synchronized (_registrations) {
+            _registrations.add(new Registration(processor, executor, ownsExecutor));
+        }
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_FRAME, new Runnable() {
+            @Override
+            public void run() {
+                if (null != _camera) {
+                    attach(_camera, _cameraType);
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop handing frames to a processor. A frame it is still processing is released once it is done.
+     */
+    public void unregister(RCTCameraFrameProcessor processor) {
+        synchronized (_registrations) {
+            Iterator<Registration> iterator = _registrations.iterator();
+            while (iterator.hasNext()) {
+                Registration registration = iterator.next();
+                if (registration.processor == processor) {
+                    iterator.remove();
+                    if (registration.ownsExecutor) {
+                        ((ExecutorService) registration.executor).shutdown();
+                    }
+                }
+            }
+        }
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_FRAME, new Runnable() {
+            @Override
+            public void run() {
+                if (null == _camera || _pauses > 0) {
+                    return;
+                }
+                if (hasRegistrations() || !_requests.isEmpty()) {
+                    attach(_camera, _cameraType);
+                } else {
+                    _camera.setPreviewCallbackWithBuffer(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Start delivering frames of a previewing camera. Must be called on the camera thread.
+     */
+    public void attach(RCTCameraBackend.Device camera, int cameraType) {
+        _camera = camera;
+        _cameraType = cameraType;
+        if (_pauses > 0 || !hasRegistrations() && _requests.isEmpty()) {
+            return;
+        }
+        RCTCameraParameters parameters = RCTCamera.getInstance().getParameters(cameraType);
+        if (!RCTCameraParameters.PREVIEW_FORMAT_NV21.equals(parameters.getPreviewFormat())) {
+            return;
+        }
+        RCTCameraCapabilities.Size previewSize = parameters.getPreviewSize();
+        int bufferSize = previewSize.width * previewSize.height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+        int slotCount = registrationCount() + 2;
+        // reuse the ring as long as the preview size doesn't change
+        if (_slots.length != slotCount || _width != previewSize.width || _height != previewSize.height) {
+            _width = previewSize.width;
+            _height = previewSize.height;
+            _slots = new Slot[slotCount];
+            for (int i = 0; i < slotCount; i++) {
+                _slots[i] = new Slot(new byte[bufferSize]);
+            }
+        }
+        // clears the camera's buffer queue, slots still held by a processor are queued again once released
+        camera.setPreviewCallbackWithBuffer(null);
+        for (Slot slot : _slots) {
+            if (slot.references == 0) {
+                camera.addCallbackBuffer(slot.data);
+            }
+        }
+        camera.setPreviewCallbackWithBuffer(this);
+    }
+
+    /**
+     * Stop delivering frames, before the camera stops previewing or is released. Must be called on the camera thread.
+     */
+    public void detach(RCTCameraBackend.Device camera) {
+        if (_camera != camera) {
+            return;
+        }
+        camera.setPreviewCallbackWithBuffer(null);
+        _camera = null;
+        _cameraType = -1;
+        cancelRequests();
+    }
+
+    /**
+     * Hand the next preview frame of a previewing camera to the request. Must be called on the camera thread.
+     *
+     * @return false if the camera isn't previewing NV21 frames, or they are taken by someone else, e.g. a burst capture
+     */
+    public boolean requestFrame(RCTCameraBackend.Device camera, FrameRequest request) {
+        if (_camera != camera || _pauses > 0 || !RCTCameraParameters.PREVIEW_FORMAT_NV21.equals(
+                RCTCamera.getInstance().getParameters(_cameraType).getPreviewFormat())) {
+            return false;
+        }
+        // requests asking again while being served keep the frames coming as well
+        boolean attached = hasRegistrations() || !_requests.isEmpty() || !_servedRequests.isEmpty();
+        _requests.add(request);
+        if (!attached) {
+            attach(camera, _cameraType);
+        }
+        return true;
+    }
+
+    /**
+     * Temporarily hand preview frames to someone else, e.g. a burst capture. Calls nest, every pause() must be
+     * matched by a resume(). Must be called on the camera thread.
+     */
+    public void pause() {
+        _pauses++;
+        if (null != _camera) {
+            _camera.setPreviewCallbackWithBuffer(null);
+        }
+        cancelRequests();
+    }
+
+    public void resume() {
+        if (_pauses == 0 || --_pauses > 0) {
+            return;
+        }
+        if (null != _camera) {
+            attach(_camera, _cameraType);
+        }
+    }
+
+    public WritableMap getStats() {
+        WritableMap stats = new WritableNativeMap();
+        synchronized (_registrations) {
+            for (Registration registration : _registrations) {
+                stats.putMap(registration.processor.getName(), registration.getStats());
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, RCTCameraBackend.Device camera) {
+        if (null == data) {
+            // the ring was too small for the current preview size, rebuild it
+            attach(camera, _cameraType);
+            return;
+        }
+        Slot slot = findSlot(data);
+        if (null == slot || camera != _camera) {
+            return;
+        }
+
+        long timestamp = SystemClock.elapsedRealtime();
+        int rotation = RCTCamera.getInstance().getRotation(_cameraType);
+        // hold a reference while dispatching so a fast processor can't hand the slot back too early
+        slot.references = 1;
+        synchronized (_registrations) {
+            for (Registration registration : _registrations) {
+                registration.offer(slot, _width, _height, rotation, timestamp);
+            }
+        }
+        if (!_requests.isEmpty()) {
+            List<FrameRequest> requests = _requests;
+            _requests = _servedRequests;
+            _servedRequests = requests;
+            for (int i = 0; i < requests.size(); i++) {
+                slot.references++;
+                requests.get(i).onFrame(slot.data, _width, _height, timestamp, slot.releaseTask);
+            }
+            requests.clear();
+            if (!hasRegistrations() && _requests.isEmpty()) {
+                camera.setPreviewCallbackWithBuffer(null);
+            }
+        }
+        release(slot);
+    }
+
+    private void cancelRequests() {
+        for (int i = 0; i < _requests.size(); i++) {
+            _requests.get(i).onCancel();
+        }
+        _requests.clear();
+    }
+
+    private Slot findSlot(byte[] data) {
+        for (Slot slot : _slots) {
+            if (slot.data == data) {
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    // camera thread
+    private void release(Slot slot) {
+        // slots of a ring replaced in the meantime are simply dropped
+        if (--slot.references == 0 && findSlot(slot.data) == slot && null != _camera && _pauses == 0) {
+            _camera.addCallbackBuffer(slot.data);
+        }
+    }
+
+    private boolean hasRegistrations() {
+        return registrationCount() > 0;
+    }
+
+    private int registrationCount() {
+        synchronized (_registrations) {
+            return _registrations.size();
+        }
+    }
+
+    private class Slot {
+        public final byte[] data;
+        public int references = 0;
+        public final Runnable releaseTask = new Runnable() {
+            @Override
+            public void run() {
+                release(Slot.this);
+            }
+        };
+
+        public Slot(byte[] data) {
+            this.data = data;
+        }
+    }
+
+    private class Registration implements Runnable {
+        public final RCTCameraFrameProcessor processor;
+        public final Executor executor;
+        public final boolean ownsExecutor;
+
+        // the frame being processed, set on the camera thread while not busy
+        private volatile boolean _busy = false;
+        private Slot _slot;
+        private int _width;
+        private int _height;
+        private int _rotation;
+        private long _timestamp;
+
+        // metrics, guarded by this
+        private final long _registeredAt = SystemClock.elapsedRealtime();
+        private int _offered = 0;
+        private int _processed = 0;
+        private int _dropped = 0;
+        private int _failed = 0;
+        private long _totalTime = 0;
+        private long _maxTime = 0;
+
+        public Registration(RCTCameraFrameProcessor processor, Executor executor, boolean ownsExecutor) {
+            this.processor = processor;
+            this.executor = executor;
+            this.ownsExecutor = ownsExecutor;
+        }
+
+        // camera thread
+        public void offer(Slot slot, int width, int height, int rotation, long timestamp) {
+            synchronized (this) {
+                _offered++;
+                if (_busy) {
+                    _dropped++;
+                    return;
+                }
+            }
+            _busy = true;
+            _slot = slot;
+            _width = width;
+            _height = height;
+            _rotation = rotation;
+            _timestamp = timestamp;
+            slot.references++;
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            Slot slot = _slot;
+            long startedAt = SystemClock.elapsedRealtime();
+            boolean failed = false;
+            try {
+                processor.process(slot.data, _width, _height, _rotation, _timestamp);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                failed = true;
+            }
+            long duration = SystemClock.elapsedRealtime() - startedAt;
+            synchronized (this) {
+                if (failed) {
+                    _failed++;
+                } else {
+                    _processed++;
+                }
+                _totalTime += duration;
+                _maxTime = Math.max(_maxTime, duration);
+            }
+            _slot = null;
+            _busy = false;
+            RCTCameraExecutor.getInstance().postFrameTask(slot.releaseTask);
+        }
+
+        public synchronized WritableMap getStats() {
+            long elapsed = SystemClock.elapsedRealtime() - _registeredAt;
+            int handled = _processed + _failed;
+            WritableMap stats = new WritableNativeMap();
+            stats.putInt("offered", _offered);
+            stats.putInt("processed", _processed);
+            stats.putInt("dropped", _dropped);
+            stats.putInt("failed", _failed);
+            stats.putDouble("framesPerSecond", elapsed > 0 ? _processed * 1000.0 / elapsed : 0);
+            stats.putDouble("averageMs", handled == 0 ? 0 : (double) _totalTime / handled);
+            stats.putDouble("maxMs", _maxTime);
+            return stats;
+        }
+    }
+}
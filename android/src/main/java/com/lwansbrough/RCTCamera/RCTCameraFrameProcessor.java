@@ -0,0 +1,27 @@
+package com.lwansbrough.RCTCamera;
+
+/**
+ * Plugin interface for analysing preview frames, registered through RCTCameraPackage.addFrameProcessor().
+ *
+ * A processor gets at most one frame at a time. Frames arriving while it is still busy are dropped for it
+ * rather than queued, so a slow processor never delays the preview or other processors.
+ */
+public interface RCTCameraFrameProcessor {
+
+    /**
+     * Name the processor's metrics are reported under.
+     */
+    String getName();
+
+    /**
+     * Called on the processor's executor with an NV21 preview frame. The array belongs to a pool that is
+     * handed back to the camera once this returns, so it must not be kept or modified.
+     *
+     * @param data      NV21 frame data, possibly larger than the frame itself
+     * @param width     frame width, in sensor orientation
+     * @param height    frame height, in sensor orientation
+     * @param rotation  clockwise rotation, in degrees, that turns the frame upright on screen
+     * @param timestamp elapsedRealtime() at which the frame was received, in milliseconds
+     */
+    void process(byte[] data, int width, int height, int rotation, long timestamp);
+}
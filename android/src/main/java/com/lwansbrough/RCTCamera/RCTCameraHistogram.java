@@ -0,0 +1,79 @@
+package com.lwansbrough.RCTCamera;
+
+/**
+ * Fixed-size latency histogram, in the style of HdrHistogram.
+ *
+ * Values are counted in log-linear buckets: every power of two is split into 16 equal sub-buckets, so any
+ * recorded value is known to within 1/16th of itself, from 1 to 2^36 units. All buckets are allocated up
+ * front and recording only increments a counter, so it can be done on hot paths.
+ */
+class RCTCameraHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values of 2^(MAX_SHIFT + SUB_BUCKET_BITS) and above land in the last bucket
+    private static final int MAX_SHIFT = 32;
+    private static final long MAX_VALUE = (1L << (MAX_SHIFT + SUB_BUCKET_BITS + 1)) - 1;
+
+    private final long[] _counts = new long[SUB_BUCKETS * (MAX_SHIFT + 2)];
+    private long _count = 0;
+    private long _max = 0;
+
+    public synchronized void record(long value) {
+        value = Math.max(0, Math.min(value, MAX_VALUE));
+        _counts[indexOf(value)]++;
+        _count++;
+        _max = Math.max(_max, value);
+    }
+
+    public synchronized long getCount() {
+        return _count;
+    }
+
+    public synchronized long getMax() {
+        return _max;
+    }
+
+    /**
+     * Highest value of the bucket holding the given percentile, at most the largest value recorded.
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (_count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(_count * Math.min(percentile, 100) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < _counts.length; i++) {
+            seen += _counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), _max);
+            }
+        }
+        return _max;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < _counts.length; i++) {
+            _counts[i] = 0;
+        }
+        _count = 0;
+        _max = 0;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        // value >> shift is within [SUB_BUCKETS, 2 * SUB_BUCKETS)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) (value >> shift) - SUB_BUCKETS;
+    }
+
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long lowest = (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
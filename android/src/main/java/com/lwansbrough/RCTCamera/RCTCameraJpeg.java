@@ -0,0 +1,103 @@
+package com.lwansbrough.RCTCamera;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * JPEG helpers for captures taken from preview frames rather than Camera.takePicture.
+ *
+ * Frames are compressed on a small encoder pool shared by all such captures, each encoder thread reusing
+ * its own output stream.
+ */
+class RCTCameraJpeg {
+    public static final int ENCODERS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+
+    // APP1 segment holding a minimal big endian Exif block with a single Orientation entry
+    private static final byte[] EXIF_ORIENTATION_SEGMENT = {
+            (byte) 0xff, (byte) 0xe1, 0x00, 0x22,           // APP1 marker and length
+            'E', 'x', 'i', 'f', 0x00, 0x00,                 // Exif header
+            'M', 'M', 0x00, 0x2a, 0x00, 0x00, 0x00, 0x08,   // TIFF header, first IFD at offset 8
+            0x00, 0x01,                                     // one entry
+            0x01, 0x12, 0x00, 0x03, 0x00, 0x00, 0x00, 0x01, // Orientation, SHORT, count 1
+            0x00, 0x01, 0x00, 0x00,                         // value, patched below
+            0x00, 0x00, 0x00, 0x00,                         // no next IFD
+    };
+    private static final int EXIF_ORIENTATION_VALUE_OFFSET = 29;
+
+    private static final ExecutorService ourEncoders = Executors.newFixedThreadPool(ENCODERS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "RCTCameraEncoderThread");
+        }
+    });
+    private static final ThreadLocal<ByteArrayOutputStream> ourOutputs = new ThreadLocal<ByteArrayOutputStream>() {
+        @Override
+        protected ByteArrayOutputStream initialValue() {
+            return new ByteArrayOutputStream();
+        }
+    };
+
+    /**
+     * Run a task on the encoder pool, at most ENCODERS run at once.
+     */
+    public static void execute(Runnable task) {
+        ourEncoders.execute(task);
+    }
+
+    /**
+     * Compress an NV21 preview frame into the calling thread's reused output stream, on the encoder pool.
+     */
+    public static byte[] compressNv21(byte[] data, int width, int height, int quality, int rotation) {
+        return compressNv21(data, width, height, quality, rotation, ourOutputs.get());
+    }
+
+    /**
+     * Compress an NV21 preview frame. The output stream is reset and reused by the caller.
+     */
+    public static byte[] compressNv21(byte[] data, int width, int height, int quality, int rotation, ByteArrayOutputStream output) {
+        output.reset();
+        YuvImage image = new YuvImage(data, ImageFormat.NV21, width, height, null);
+        image.compressToJpeg(new Rect(0, 0, width, height), quality, output);
+        return withOrientation(output.toByteArray(), rotation);
+    }
+
+    /**
+     * Tag a JPEG without Exif data with the clockwise rotation that makes it upright, instead of rotating
+     * its pixels.
+     */
+    public static byte[] withOrientation(byte[] jpeg, int rotation) {
+        if (rotation == 0 || jpeg.length < 4) {
+            return jpeg;
+        }
+        // keep a leading JFIF APP0 segment first, readers expect it right after SOI
+        int insertAt = 2;
+        if ((jpeg[2] & 0xff) == 0xff && (jpeg[3] & 0xff) == 0xe0 && jpeg.length > 6) {
+            insertAt = 4 + ((jpeg[4] & 0xff) << 8 | (jpeg[5] & 0xff));
+        }
+        byte[] tagged = new byte[jpeg.length + EXIF_ORIENTATION_SEGMENT.length];
+        System.arraycopy(jpeg, 0, tagged, 0, insertAt);
+        System.arraycopy(EXIF_ORIENTATION_SEGMENT, 0, tagged, insertAt, EXIF_ORIENTATION_SEGMENT.length);
+        tagged[insertAt + EXIF_ORIENTATION_VALUE_OFFSET] = (byte) exifOrientation(rotation);
+        System.arraycopy(jpeg, insertAt, tagged, insertAt + EXIF_ORIENTATION_SEGMENT.length, jpeg.length - insertAt);
+        return tagged;
+    }
+
+    private static int exifOrientation(int rotation) {
+        switch (rotation) {
+            case 90:
+                return 6;
+            case 180:
+                return 3;
+            case 270:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+}
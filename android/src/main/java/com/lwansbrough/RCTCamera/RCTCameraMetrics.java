@@ -0,0 +1,103 @@
+package com.lwansbrough.RCTCamera;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+/**
+ * Per-stage latency of still and snapshot captures, from the capture() call to the promise being resolved.
+ *
+ * Stages are timed with System.nanoTime() and recorded, in microseconds, into one fixed-size histogram
+ * each, so tracing a capture doesn't allocate. Storing and resolving are only recorded for captures that
+ * resolve, failures would skew the percentiles.
+ */
+class RCTCameraMetrics {
+    // waiting for a sensor reading, for captures with the auto orientation
+    public static final int STAGE_ORIENTATION = 0;
+    // waiting in the capture queue for the camera
+    public static final int STAGE_QUEUE = 1;
+    public static final int STAGE_CAPTURE_QUALITY = 2;
+    public static final int STAGE_ROTATION = 3;
+    public static final int STAGE_COMMIT = 4;
+    // takePicture() to the picture callback
+    public static final int STAGE_HAL = 5;
+    public static final int STAGE_PREVIEW_RESTART = 6;
+    // encoding or writing the picture, up to the promise being resolved
+    public static final int STAGE_STORE = 7;
+    public static final int STAGE_RESOLVE = 8;
+    // capture() to the picture callback
+    public static final int STAGE_SHUTTER_LAG = 9;
+    // capture() to the promise being resolved
+    public static final int STAGE_TOTAL = 10;
+    // snapshot captures: capture() to the next preview frame
+    public static final int STAGE_SNAPSHOT_FRAME = 11;
+    public static final int STAGE_SNAPSHOT_ENCODE = 12;
+    // capture() to the promise of a snapshot capture being resolved
+    public static final int STAGE_SNAPSHOT_TOTAL = 13;
+    // scoring one preview frame of a sharpest frame capture
+    public static final int STAGE_SHARPNESS_SCORE = 14;
+
+    private static final String[] STAGE_NAMES = {
+            "orientation", "queue", "captureQuality", "rotation", "commit", "hal", "previewRestart",
+            "store", "resolve", "shutterLag", "total", "snapshotFrame", "snapshotEncode", "snapshotTotal",
+            "sharpnessScore"
+    };
+
+    private static final RCTCameraHistogram[] ourHistograms = new RCTCameraHistogram[STAGE_NAMES.length];
+
+    static {
+        for (int i = 0; i < ourHistograms.length; i++) {
+            ourHistograms[i] = new RCTCameraHistogram();
+        }
+    }
+
+    private RCTCameraMetrics() {
+    }
+
+    /**
+     * Record the time spent in a stage started at the given System.nanoTime().
+     *
+     * @return now, to start timing the next stage from
+     */
+    public static long record(int stage, long startedAt) {
+        long now = System.nanoTime();
+        record(stage, startedAt, now);
+        return now;
+    }
+
+    public static void record(int stage, long startedAt, long endedAt) {
+        ourHistograms[stage].record((endedAt - startedAt) / 1000);
+    }
+
+    /**
+     * Number of captures recorded so far, to tell whether anything changed since the last look.
+     */
+    public static long getCaptureCount() {
+        return ourHistograms[STAGE_TOTAL].getCount() + ourHistograms[STAGE_SNAPSHOT_TOTAL].getCount();
+    }
+
+    /**
+     * count, p50, p90, p99 and max, in milliseconds, for every stage.
+     */
+    public static WritableMap getMetrics() {
+        WritableMap metrics = new WritableNativeMap();
+        for (int i = 0; i < ourHistograms.length; i++) {
+            RCTCameraHistogram histogram = ourHistograms[i];
+            WritableMap stage = new WritableNativeMap();
+            synchronized (histogram) {
+                stage.putDouble("count", histogram.getCount());
+                stage.putDouble("p50", histogram.getValueAtPercentile(50) / 1e3);
+                stage.putDouble("p90", histogram.getValueAtPercentile(90) / 1e3);
+                stage.putDouble("p99", histogram.getValueAtPercentile(99) / 1e3);
+                stage.putDouble("max", histogram.getMax() / 1e3);
+            }
+            metrics.putMap(STAGE_NAMES[i], stage);
+        }
+        return metrics;
+    }
+
+    public static void reset() {
+        for (RCTCameraHistogram histogram : ourHistograms) {
+            histogram.reset();
+        }
+    }
+}
@@ -4,35 +4,35 @@
 
 package com.lwansbrough.RCTCamera;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.hardware.Camera;
 import android.media.MediaActionSound;
 import android.net.Uri;
-import android.os.Environment;
-import android.provider.MediaStore;
-import android.util.Base64;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.view.Surface;
 import com.facebook.react.bridge.*;
+import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
+import com.google.zxing.BarcodeFormat;
 
 import javax.annotation.Nullable;
 import java.io.*;
-import java.text.SimpleDateFormat;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class RCTCameraModule extends ReactContextBaseJavaModule {
-    private static final String TAG = "RCTCameraModule";
+public class RCTCameraModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
 
     public static final int RCT_CAMERA_ASPECT_FILL = 0;
     public static final int RCT_CAMERA_ASPECT_FIT = 1;
     public static final int RCT_CAMERA_ASPECT_STRETCH = 2;
     public static final int RCT_CAMERA_CAPTURE_MODE_STILL = 0;
     public static final int RCT_CAMERA_CAPTURE_MODE_VIDEO = 1;
+    public static final int RCT_CAMERA_CAPTURE_MODE_BURST = 2;
+    public static final int RCT_CAMERA_CAPTURE_MODE_PRE_ROLL = 3;
+    public static final int RCT_CAMERA_CAPTURE_MODE_SNAPSHOT = 4;
+    public static final int RCT_CAMERA_CAPTURE_MODE_SHARPEST = 5;
     public static final int RCT_CAMERA_CAPTURE_TARGET_MEMORY = 0;
     public static final int RCT_CAMERA_CAPTURE_TARGET_DISK = 1;
     public static final int RCT_CAMERA_CAPTURE_TARGET_CAMERA_ROLL = 2;
@@ -52,14 +52,52 @@ public class RCTCameraModule extends ReactContextBaseJavaModule {
     public static final int RCT_CAMERA_TORCH_MODE_AUTO = 2;
     public static final int MEDIA_TYPE_IMAGE = 1;
     public static final int MEDIA_TYPE_VIDEO = 2;
+    public static final String RCT_CAMERA_MEMORY_DELIVERY_STRING = "string";
+    public static final String RCT_CAMERA_MEMORY_DELIVERY_CHUNKS = "chunks";
+    public static final String RCT_CAMERA_MEMORY_DELIVERY_BLOB = "blob";
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
 
     private final ReactApplicationContext _reactContext;
-    private RCTSensorOrientationChecker _sensorOrientationChecker;
+    private final RCTCameraBlobStore _blobStore = new RCTCameraBlobStore();
+    private final RCTCameraCapturePipeline _capturePipeline;
+    // only used on the capture I/O thread
+    private final RCTCameraBase64Encoder _base64Encoder = new RCTCameraBase64Encoder();
+    private final Handler _metricsHandler = new Handler(Looper.getMainLooper());
+    private final Runnable _metricsTask = new Runnable() {
+        @Override
+        public void run() {
+            emitMetrics();
+        }
+    };
+    private int _metricsInterval = 0;
+    private long _emittedCaptureCount = 0;
 
     public RCTCameraModule(ReactApplicationContext reactContext) {
+        this(reactContext, new RCTCameraCamera1Backend());
+    }
+
+    public RCTCameraModule(ReactApplicationContext reactContext, RCTCameraBackend backend) {
         super(reactContext);
         _reactContext = reactContext;
-        _sensorOrientationChecker = new RCTSensorOrientationChecker(_reactContext);
+        RCTCamera.createInstance(reactContext, backend);
+        RCTCameraBarCodeScanner.getInstance().setReactContext(reactContext);
+        RCTSensorOrientationChecker.createInstance(reactContext);
+        RCTCameraStorage.createInstance(reactContext);
+        // temp captures left over from earlier sessions may be over the quota already
+        RCTCameraStorage.getInstance().trimTempFiles();
+        reactContext.addLifecycleEventListener(this);
+        _capturePipeline = new RCTCameraCapturePipeline(new RCTCameraCapturePipeline.Dispatcher() {
+            @Override
+            public void dispatch(final RCTCameraCapturePipeline.Capture capture) {
+                RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CAPTURE, new Runnable() {
+                    @Override
+                    public void run() {
+                        takePicture(capture);
+                    }
+                });
+            }
+        });
     }
 
     @Override
@@ -67,6 +105,30 @@ public class RCTCameraModule extends ReactContextBaseJavaModule {
         return "RCTCameraModule";
     }
 
+    @Override
+    public void onHostResume() {
+        RCTSensorOrientationChecker.getInstance().onResume();
+    }
+
+    @Override
+    public void onHostPause() {
+        RCTSensorOrientationChecker.getInstance().onPause();
+        // other apps may want the camera now, don't wait for the keep-alive
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_RELEASE, new Runnable() {
+            @Override
+            public void run() {
+                RCTCamera.getInstance().closeIdleCameras();
+            }
+        });
+    }
+
+    @Override
+    public void onHostDestroy() {
+        RCTSensorOrientationChecker.getInstance().onPause();
+        _metricsHandler.removeCallbacks(_metricsTask);
+        _blobStore.clear();
+    }
+
     @Nullable
     @Override
     public Map<String, Object> getConstants() {
@@ -78,6 +140,8 @@ public class RCTCameraModule extends ReactContextBaseJavaModule {
                 put("CaptureQuality", getCaptureQualityConstants());
                 put("CaptureMode", getCaptureModeConstants());
                 put("CaptureTarget", getCaptureTargetConstants());
+                put("MemoryDelivery", getMemoryDeliveryConstants());
+                put("SharpnessOutput", getSharpnessOutputConstants());
                 put("Orientation", getOrientationConstants());
                 put("FlashMode", getFlashModeConstants());
                 put("TorchMode", getTorchModeConstants());
@@ -96,7 +160,9 @@ public class RCTCameraModule extends ReactContextBaseJavaModule {
             private Map<String, Object> getBarCodeConstants() {
                 return Collections.unmodifiableMap(new HashMap<String, Object>() {
                     {
-                        // @TODO add barcode types
+                        for (Map.Entry<String, BarcodeFormat> type : RCTCameraBarCodeScanner.TYPES.entrySet()) {
+                            put(type.getKey(), type.getValue().name());
+                        }
                     }
                 });
             }
@@ -126,6 +192,10 @@ public class RCTCameraModule extends ReactContextBaseJavaModule {
                     {
                         put("still", RCT_CAMERA_CAPTURE_MODE_STILL);
                         put("video", RCT_CAMERA_CAPTURE_MODE_VIDEO);
+                        put("burst", RCT_CAMERA_CAPTURE_MODE_BURST);
+                        put("preRoll", RCT_CAMERA_CAPTURE_MODE_PRE_ROLL);
+                        put("snapshot", RCT_CAMERA_CAPTURE_MODE_SNAPSHOT);
+                        put("sharpest", RCT_CAMERA_CAPTURE_MODE_SHARPEST);
                     }
                 });
             }
@@ -141,6 +211,25 @@ public class RCTCameraModule extends ReactContextBaseJavaModule {
                 });
             }
 
+            private Map<String, Object> getMemoryDeliveryConstants() {
+                return Collections.unmodifiableMap(new HashMap<String, Object>() {
+                    {
+                        put("string", RCT_CAMERA_MEMORY_DELIVERY_STRING);
+                        put("chunks", RCT_CAMERA_MEMORY_DELIVERY_CHUNKS);
+                        put("blob", RCT_CAMERA_MEMORY_DELIVERY_BLOB);
+                    }
+                });
+            }
+
+            private Map<String, Object> getSharpnessOutputConstants() {
+                return Collections.unmodifiableMap(new HashMap<String, Object>() {
+                    {
+                        put("frame", RCTCameraSharpestCapture.OUTPUT_FRAME);
+                        put("still", RCTCameraSharpestCapture.OUTPUT_STILL);
+                    }
+                });
+            }
+
             private Map<String, Object> getOrientationConstants() {
                 return Collections.unmodifiableMap(new HashMap<String, Object>() {
                     {
@@ -177,26 +266,182 @@ public class RCTCameraModule extends ReactContextBaseJavaModule {
 
     @ReactMethod
     public void capture(final ReadableMap options, final Promise promise) {
+        final long requestedAt = System.nanoTime();
         int orientation = options.hasKey("orientation") ? options.getInt("orientation") : RCTCamera.getInstance().getOrientation();
         if (orientation == RCT_CAMERA_ORIENTATION_AUTO) {
-            _sensorOrientationChecker.onResume();
-            _sensorOrientationChecker.registerOrientationListener(new RCTSensorOrientationListener() {
+            // kept up to date while a camera view is shown, so this only waits when capturing without one
+            final RCTSensorOrientationChecker checker = RCTSensorOrientationChecker.getInstance();
+            checker.requestOrientation(new RCTSensorOrientationListener() {
                 @Override
                 public void orientationEvent() {
-                    int deviceOrientation = _sensorOrientationChecker.getOrientation();
-                    _sensorOrientationChecker.unregisterOrientationListener();
-                    _sensorOrientationChecker.onPause();
-                    captureWithOrientation(options, promise, deviceOrientation);
+                    RCTCameraMetrics.record(RCTCameraMetrics.STAGE_ORIENTATION, requestedAt);
+                    captureWithOrientation(options, promise, checker.getOrientation(), requestedAt);
                 }
             });
         } else {
-            captureWithOrientation(options, promise, orientation);
+            captureWithOrientation(options, promise, orientation, requestedAt);
         }
     }
 
-    public void captureWithOrientation(final ReadableMap options, final Promise promise, int deviceOrientation) {
-        Camera camera = RCTCamera.getInstance().acquireCameraInstance(options.getInt("type"));
-        if (null == camera) {
+    public void captureWithOrientation(final ReadableMap options, final Promise promise, final int deviceOrientation, final long requestedAt) {
+        if (options.hasKey("mode") && (options.getInt("mode") == RCT_CAMERA_CAPTURE_MODE_VIDEO
+                || options.getInt("mode") == RCT_CAMERA_CAPTURE_MODE_PRE_ROLL)) {
+            final long recordingRequestedAt = SystemClock.elapsedRealtime();
+            RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CAPTURE, new Runnable() {
+                @Override
+                public void run() {
+                    startRecording(options, promise, deviceOrientation, recordingRequestedAt);
+                }
+            });
+            return;
+        }
+        if (options.hasKey("mode") && options.getInt("mode") == RCT_CAMERA_CAPTURE_MODE_BURST) {
+            RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CAPTURE, new Runnable() {
+                @Override
+                public void run() {
+                    startBurst(options, promise, deviceOrientation);
+                }
+            });
+            return;
+        }
+        if (options.hasKey("mode") && options.getInt("mode") == RCT_CAMERA_CAPTURE_MODE_SNAPSHOT) {
+            RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CAPTURE, new Runnable() {
+                @Override
+                public void run() {
+                    startSnapshot(options, promise, deviceOrientation, requestedAt);
+                }
+            });
+            return;
+        }
+        if (options.hasKey("mode") && options.getInt("mode") == RCT_CAMERA_CAPTURE_MODE_SHARPEST) {
+            RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CAPTURE, new Runnable() {
+                @Override
+                public void run() {
+                    startSharpest(options, promise, deviceOrientation, requestedAt);
+                }
+            });
+            return;
+        }
+        _capturePipeline.submit(options, deviceOrientation, requestedAt, promise);
+    }
+
+    /**
+     * Configure the capture queue: maxQueued captures waiting for the camera, maxInFlight captures being
+     * taken or stored at once, and whenFull, either "reject" or "coalesce", for captures beyond that.
+     */
+    @ReactMethod
+    public void setCapturePipelineOptions(ReadableMap options) {
+        _capturePipeline.configure(options);
+    }
+
+    @ReactMethod
+    public void getCapturePipelineStats(Promise promise) {
+        promise.resolve(_capturePipeline.getStats());
+    }
+
+    @ReactMethod
+    public void getMetrics(Promise promise) {
+        promise.resolve(RCTCameraMetrics.getMetrics());
+    }
+
+    @ReactMethod
+    public void resetMetrics() {
+        RCTCameraMetrics.reset();
+    }
+
+    /**
+     * Emit the capture metrics as a CameraMetrics event every intervalMs, whenever captures were recorded
+     * since the last one. 0 stops the events.
+     */
+    @ReactMethod
+    public void setMetricsInterval(final int intervalMs) {
+        _metricsHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                _metricsHandler.removeCallbacks(_metricsTask);
+                _metricsInterval = Math.max(0, intervalMs);
+                if (_metricsInterval > 0) {
+                    _metricsHandler.postDelayed(_metricsTask, _metricsInterval);
+                }
+            }
+        });
+    }
+
+    // main thread only
+    private void emitMetrics() {
+        if (_metricsInterval == 0) {
+            return;
+        }
+        long captureCount = RCTCameraMetrics.getCaptureCount();
+        if (captureCount != _emittedCaptureCount) {
+            _emittedCaptureCount = captureCount;
+            _reactContext.getJSModule(RCTNativeAppEventEmitter.class).emit("CameraMetrics", RCTCameraMetrics.getMetrics());
+        }
+        _metricsHandler.postDelayed(_metricsTask, _metricsInterval);
+    }
+
+    @ReactMethod
+    public void getFrameProcessorStats(Promise promise) {
+        promise.resolve(RCTCameraFrameDispatcher.getInstance().getStats());
+    }
+
+    @ReactMethod
+    public void getBarCodeScannerStats(Promise promise) {
+        promise.resolve(RCTCameraBarCodeScanner.getInstance().getStats());
+    }
+
+    @ReactMethod
+    public void getPreRollStats(Promise promise) {
+        promise.resolve(RCTCameraPreRollRecorder.getInstance().getStats());
+    }
+
+    @ReactMethod
+    public void getCameraQueueStats(Promise promise) {
+        promise.resolve(RCTCameraExecutor.getInstance().getStats());
+    }
+
+    @ReactMethod
+    public void getParameterStats(Promise promise) {
+        promise.resolve(RCTCameraParameters.getStats());
+    }
+
+    @ReactMethod
+    public void getLayoutStats(Promise promise) {
+        promise.resolve(RCTCameraView.getLayoutStats());
+    }
+
+    @ReactMethod
+    public void getCameraSwitchStats(Promise promise) {
+        promise.resolve(RCTCameraViewFinder.getSwitchStats());
+    }
+
+    @ReactMethod
+    public void getCameraLeaseStats(Promise promise) {
+        promise.resolve(RCTCamera.getInstance().getLeaseStats());
+    }
+
+    /**
+     * Limit the space taken by temp captures. Options: maxBytes and maxAgeSeconds, 0 for no limit.
+     */
+    @ReactMethod
+    public void setCaptureStorageOptions(ReadableMap options) {
+        long maxBytes = options.hasKey("maxBytes") ? (long) options.getDouble("maxBytes") : RCTCameraStorage.DEFAULT_MAX_TEMP_BYTES;
+        long maxAge = options.hasKey("maxAgeSeconds") ? (long) (options.getDouble("maxAgeSeconds") * 1000) : RCTCameraStorage.DEFAULT_MAX_TEMP_AGE;
+        RCTCameraStorage.getInstance().setTempQuota(maxBytes, maxAge);
+    }
+
+    @ReactMethod
+    public void getCaptureStorageUsage(Promise promise) {
+        RCTCameraStorage.getInstance().getUsage(promise);
+    }
+
+    // must be called on the camera thread, the picture callback is delivered there as well
+    private void takePicture(final RCTCameraCapturePipeline.Capture capture) {
+        final ReadableMap options = capture.options;
+        final Promise promise = capture;
+        int deviceOrientation = capture.deviceOrientation;
+        final RCTCamera.Lease lease = RCTCamera.getInstance().leaseCamera(options.getInt("type"));
+        if (null == lease) {
             promise.reject("No camera found.");
             return;
         }
@@ -206,140 +451,477 @@ public class RCTCameraModule extends ReactContextBaseJavaModule {
             sound.play(MediaActionSound.SHUTTER_CLICK);
         }
 
+        long stageStartedAt = System.nanoTime();
         if (options.hasKey("quality")) {
             RCTCamera.getInstance().setCaptureQuality(options.getInt("type"), options.getString("quality"));
+            stageStartedAt = RCTCameraMetrics.record(RCTCameraMetrics.STAGE_CAPTURE_QUALITY, stageStartedAt);
         }
 
         RCTCamera.getInstance().adjustCameraRotationToDeviceOrientation(options.getInt("type"), deviceOrientation);
-        camera.takePicture(null, null, new Camera.PictureCallback() {
+        stageStartedAt = RCTCameraMetrics.record(RCTCameraMetrics.STAGE_ROTATION, stageStartedAt);
+        RCTCamera.getInstance().commitParameters(options.getInt("type"));
+        final long shutterAt = RCTCameraMetrics.record(RCTCameraMetrics.STAGE_COMMIT, stageStartedAt);
+        // whichever of the picture callback, the watchdog and an aborted picture comes first settles the capture
+        final AtomicBoolean settled = new AtomicBoolean(false);
+        RCTCameraBackend.PictureCallback callback = new RCTCameraBackend.PictureCallback() {
             @Override
-            public void onPictureTaken(byte[] data, Camera camera) {
-                camera.stopPreview();
+            public void onPictureTaken(byte[] data, RCTCameraBackend.Device camera) {
+                if (!settled.compareAndSet(false, true)) {
+                    // too late, the capture was already given up on, but the preview still needs restarting
+                    try {
+                        camera.startPreview();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                    return;
+                }
+                long takenAt = RCTCameraMetrics.record(RCTCameraMetrics.STAGE_HAL, shutterAt);
+                // restart preview right away, storing the picture happens off the camera thread
                 camera.startPreview();
-                WritableMap response = new WritableNativeMap();
-                switch (options.getInt("target")) {
-                    case RCT_CAMERA_CAPTURE_TARGET_MEMORY:
-                        String encoded = Base64.encodeToString(data, Base64.DEFAULT);
-                        response.putString("data", encoded);
-                        promise.resolve(response);
-                        break;
-                    case RCT_CAMERA_CAPTURE_TARGET_CAMERA_ROLL:
-                        BitmapFactory.Options bitmapOptions = new BitmapFactory.Options();
-                        Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, bitmapOptions);
-                        String url = MediaStore.Images.Media.insertImage(
-                                _reactContext.getContentResolver(),
-                                bitmap, options.getString("title"),
-                                options.getString("description"));
-                        response.putString("path", url);
-                        promise.resolve(response);
-                        break;
-                    case RCT_CAMERA_CAPTURE_TARGET_DISK:
-                        File pictureFile = getOutputMediaFile(MEDIA_TYPE_IMAGE);
-                        if (pictureFile == null) {
-                            promise.reject("Error creating media file.");
-                            return;
-                        }
+                RCTCameraMetrics.record(RCTCameraMetrics.STAGE_PREVIEW_RESTART, takenAt);
+                lease.release();
+                capture.onPictureTaken();
+                storeCapture(data, options, promise);
+            }
+        };
+        Runnable onAborted = new Runnable() {
+            @Override
+            public void run() {
+                if (settled.compareAndSet(false, true)) {
+                    lease.release();
+                    capture.onPictureAborted("The preview was stopped before the picture was taken.");
+                }
+            }
+        };
+        try {
+            lease.takePicture(callback, onAborted);
+        } catch (RuntimeException e) {
+            lease.release();
+            promise.reject("Error taking picture: " + e.getMessage());
+            return;
+        }
+        RCTCameraExecutor.getInstance().executeDelayed(RCTCameraExecutor.COMMAND_CAPTURE, new Runnable() {
+            @Override
+            public void run() {
+                if (settled.compareAndSet(false, true)) {
+                    lease.release();
+                    capture.onPictureAborted("Timed out waiting for the camera to take the picture.");
+                }
+            }
+        }, _capturePipeline.getPictureTimeout());
+    }
 
-                        try {
-                            FileOutputStream fos = new FileOutputStream(pictureFile);
-                            fos.write(data);
-                            fos.close();
-                        } catch (FileNotFoundException e) {
-                            promise.reject("File not found: " + e.getMessage());
-                        } catch (IOException e) {
-                            promise.reject("Error accessing file: " + e.getMessage());
-                        }
-                        response.putString("path", Uri.fromFile(pictureFile).toString());
-                        promise.resolve(response);
-                        break;
-                    case RCT_CAMERA_CAPTURE_TARGET_TEMP:
-                        File tempFile = getTempMediaFile(MEDIA_TYPE_IMAGE);
-
-                        if (tempFile == null) {
-                            promise.reject("Error creating media file.");
-                            return;
-                        }
+    // must be called on the camera thread
+    private void startBurst(final ReadableMap options, final Promise promise, int deviceOrientation) {
+        int type = options.getInt("type");
+        final RCTCamera.Lease lease = RCTCamera.getInstance().leaseCamera(type);
+        if (null == lease) {
+            promise.reject("No camera found.");
+            return;
+        }
 
-                        try {
-                            FileOutputStream fos = new FileOutputStream(tempFile);
-                            fos.write(data);
-                            fos.close();
-                        } catch (FileNotFoundException e) {
-                            promise.reject("File not found: " + e.getMessage());
-                        } catch (IOException e) {
-                            promise.reject("Error accessing file: " + e.getMessage());
-                        }
-                        response.putString("path", Uri.fromFile(tempFile).toString());
-                        promise.resolve(response);
-                        break;
+        if (options.hasKey("playSoundOnCapture") && options.getBoolean("playSoundOnCapture")) {
+            MediaActionSound sound = new MediaActionSound();
+            sound.play(MediaActionSound.SHUTTER_CLICK);
+        }
+
+        int rotation = RCTCamera.getInstance().getCaptureRotation(type, deviceOrientation);
+        RCTCameraBurstCapture burst = new RCTCameraBurstCapture(lease.camera, rotation, options, new RCTCameraBurstCapture.Store() {
+            @Override
+            public void store(byte[] jpeg, Promise promise) {
+                storeCapture(jpeg, options, promise);
+            }
+        }, new Promise() {
+            // the camera is held until every frame has been stored
+            @Override
+            public void resolve(Object value) {
+                lease.release();
+                promise.resolve(value);
+            }
+
+            @Override
+            public void reject(Throwable reason) {
+                lease.release();
+                promise.reject(reason);
+            }
+
+            @Override
+            public void reject(String reason) {
+                lease.release();
+                promise.reject(reason);
+            }
+        });
+        burst.start(RCTCamera.getInstance().getParameters(type));
+    }
+
+    // must be called on the camera thread, the frame is delivered there as well
+    private void startSnapshot(final ReadableMap options, Promise promise, int deviceOrientation, long requestedAt) {
+        int type = options.getInt("type");
+        RCTCamera.Lease lease = RCTCamera.getInstance().leaseCamera(type);
+        if (null == lease) {
+            promise.reject("No camera found.");
+            return;
+        }
+
+        if (options.hasKey("playSoundOnCapture") && options.getBoolean("playSoundOnCapture")) {
+            MediaActionSound sound = new MediaActionSound();
+            sound.play(MediaActionSound.SHUTTER_CLICK);
+        }
+
+        int rotation = RCTCamera.getInstance().getCaptureRotation(type, deviceOrientation);
+        new RCTCameraSnapshotCapture(lease, rotation, options, new RCTCameraBurstCapture.Store() {
+            @Override
+            public void store(byte[] jpeg, Promise promise) {
+                storeCapture(jpeg, options, promise);
+            }
+        }, requestedAt, promise).start();
+    }
+
+    // must be called on the camera thread, the frames are delivered there as well
+    private void startSharpest(final ReadableMap options, Promise promise, final int deviceOrientation, long requestedAt) {
+        int type = options.getInt("type");
+        RCTCamera.Lease lease = RCTCamera.getInstance().leaseCamera(type);
+        if (null == lease) {
+            promise.reject("No camera found.");
+            return;
+        }
+
+        int rotation = RCTCamera.getInstance().getCaptureRotation(type, deviceOrientation);
+        new RCTCameraSharpestCapture(lease, rotation, options, new RCTCameraBurstCapture.Store() {
+            @Override
+            public void store(byte[] jpeg, Promise promise) {
+                storeCapture(jpeg, options, promise);
+            }
+        }, new RCTCameraSharpestCapture.Still() {
+            @Override
+            public void capture(Promise promise) {
+                // timed from here, so the still path's metrics don't include the scoring
+                _capturePipeline.submit(options, deviceOrientation, System.nanoTime(), promise);
+            }
+        }, requestedAt, promise).start();
+    }
+
+    // must be called on the camera thread, the recording is stopped there as well
+    private void startRecording(final ReadableMap options, final Promise promise, int deviceOrientation, long requestedAt) {
+        int type = options.getInt("type");
+        final RCTCamera.Lease lease = RCTCamera.getInstance().leaseCamera(type);
+        if (null == lease) {
+            promise.reject("No camera found.");
+            return;
+        }
+
+        final int target = options.getInt("target");
+        File file;
+        switch (target) {
+            case RCT_CAMERA_CAPTURE_TARGET_DISK:
+                file = getOutputMediaFile(MEDIA_TYPE_VIDEO);
+                break;
+            case RCT_CAMERA_CAPTURE_TARGET_TEMP:
+            case RCT_CAMERA_CAPTURE_TARGET_CAMERA_ROLL:
+                // camera roll recordings are copied into the MediaStore once finished
+                file = getTempMediaFile(MEDIA_TYPE_VIDEO);
+                break;
+            default:
+                lease.release();
+                promise.reject("Unsupported capture target for video.");
+                return;
+        }
+        if (null == file) {
+            lease.release();
+            promise.reject("Error creating media file.");
+            return;
+        }
+        // the temp quota must not evict the file while it is being recorded
+        final File output = file;
+        RCTCameraStorage.getInstance().pin(output);
+
+        if (options.hasKey("playSoundOnCapture") && options.getBoolean("playSoundOnCapture")) {
+            MediaActionSound sound = new MediaActionSound();
+            sound.play(MediaActionSound.START_VIDEO_RECORDING);
+        }
+
+        int rotation = RCTCamera.getInstance().getCaptureRotation(type, deviceOrientation);
+        RCTCameraVideoRecorder.Callback callback = new RCTCameraVideoRecorder.Callback() {
+            @Override
+            public void onRecorded(File file, WritableMap stats) {
+                lease.release();
+                RCTCameraStorage.getInstance().unpin(output);
+                if (target == RCT_CAMERA_CAPTURE_TARGET_TEMP) {
+                    RCTCameraStorage.getInstance().trimTempFiles();
+                }
+                if (target != RCT_CAMERA_CAPTURE_TARGET_CAMERA_ROLL) {
+                    stats.putString("path", Uri.fromFile(file).toString());
+                    promise.resolve(stats);
+                    return;
+                }
+                long startedAt = SystemClock.elapsedRealtime();
+                try {
+                    Uri uri = RCTCameraFileWriter.insertVideoNow(_reactContext.getContentResolver(), file,
+                            options.getString("title"), options.getString("description"));
+                    stats.putString("path", uri.toString());
+                    stats.putDouble("writeMs", SystemClock.elapsedRealtime() - startedAt);
+                    stats.putInt("allocatedBytes", RCTCameraFileWriter.COPY_BUFFER_SIZE);
+                    promise.resolve(stats);
+                } catch (IOException e) {
+                    promise.reject("Error inserting video: " + e.getMessage());
+                } finally {
+                    file.delete();
+                }
+            }
+
+            @Override
+            public void onError(String message) {
+                lease.release();
+                RCTCameraStorage.getInstance().unpin(output);
+                promise.reject(message);
+            }
+        };
+
+        // with pre-roll running, the recording starts with the buffered seconds and keeps using its encoder
+        if (RCTCameraPreRollRecorder.getInstance().isEnabled()) {
+            RCTCameraPreRollRecorder.getInstance().startRecording(file, rotation, requestedAt, callback);
+            return;
+        }
+        if (options.getInt("mode") == RCT_CAMERA_CAPTURE_MODE_PRE_ROLL) {
+            lease.release();
+            RCTCameraStorage.getInstance().unpin(output);
+            file.delete();
+            promise.reject("Pre-roll is not running, set captureMode to preRoll first.");
+            return;
+        }
+        boolean audio = options.hasKey("audio") ? options.getBoolean("audio") : RCTCamera.getInstance().getCaptureAudio();
+        int maxDuration = options.hasKey("totalSeconds") && options.getDouble("totalSeconds") > 0 ? (int) (options.getDouble("totalSeconds") * 1000) : 0;
+        String quality = options.hasKey("quality") ? options.getString("quality") : "high";
+        Camera camera = lease.camera.getCamera();
+        if (null == camera) {
+            // MediaRecorder records straight from a Camera1 camera
+            callback.onError("Video recording is not supported by this camera backend.");
+            return;
+        }
+        if (RCTCameraBurstCapture.isActive()) {
+            callback.onError("Can't record while a burst capture is running.");
+            return;
+        }
+        RCTCameraVideoRecorder.getInstance().start(camera, RCTCamera.getInstance().getVideoProfile(type, quality),
+                audio, rotation, maxDuration, file, requestedAt, callback);
+    }
+
+    /**
+     * Hand a captured JPEG to the capture target, settling the promise once it has been stored.
+     */
+    private void storeCapture(byte[] data, ReadableMap options, Promise promise) {
+        switch (options.getInt("target")) {
+            case RCT_CAMERA_CAPTURE_TARGET_MEMORY:
+                deliverToMemory(data, options, promise);
+                break;
+            case RCT_CAMERA_CAPTURE_TARGET_CAMERA_ROLL:
+                RCTCameraFileWriter.getInstance().insertImage(
+                        _reactContext.getContentResolver(), data,
+                        options.getString("title"), options.getString("description"),
+                        new StorageCallback(data.length, promise));
+                break;
+            case RCT_CAMERA_CAPTURE_TARGET_DISK:
+                writeToFile(data, getOutputMediaFile(MEDIA_TYPE_IMAGE), options, promise);
+                break;
+            case RCT_CAMERA_CAPTURE_TARGET_TEMP:
+                writeToFile(data, getTempMediaFile(MEDIA_TYPE_IMAGE), options, promise);
+                break;
+            default:
+                promise.reject("Unsupported capture target.");
+        }
+    }
+
+    private void deliverToMemory(final byte[] data, ReadableMap options, final Promise promise) {
+        String delivery = options.hasKey("memoryDelivery") ? options.getString("memoryDelivery") : RCT_CAMERA_MEMORY_DELIVERY_STRING;
+        if (RCT_CAMERA_MEMORY_DELIVERY_BLOB.equals(delivery)) {
+            long ttl = options.hasKey("blobTtl") ? options.getInt("blobTtl") : RCTCameraBlobStore.DEFAULT_TTL;
+            WritableMap response = new WritableNativeMap();
+            response.putString("blob", _blobStore.put(data, ttl));
+            response.putInt("size", data.length);
+            promise.resolve(response);
+            return;
+        }
+
+        final boolean chunked = RCT_CAMERA_MEMORY_DELIVERY_CHUNKS.equals(delivery);
+        int requestedChunkSize = options.hasKey("chunkSize") ? options.getInt("chunkSize") : DEFAULT_CHUNK_SIZE;
+        // whole base64 quanta only, so chunks can be decoded independently
+        final int chunkSize = Math.max(3, Math.min(requestedChunkSize, MAX_CHUNK_SIZE) / 3 * 3);
+        RCTCameraFileWriter.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                WritableMap response = new WritableNativeMap();
+                if (!chunked) {
+                    response.putString("data", _base64Encoder.encode(data));
+                    promise.resolve(response);
+                    return;
                 }
+
+                String id = Integer.toHexString(System.identityHashCode(data)) + "-" + SystemClock.elapsedRealtime();
+                int count = (data.length + chunkSize - 1) / chunkSize;
+                RCTNativeAppEventEmitter emitter = _reactContext.getJSModule(RCTNativeAppEventEmitter.class);
+                for (int index = 0; index < count; index++) {
+                    int offset = index * chunkSize;
+                    WritableMap chunk = new WritableNativeMap();
+                    chunk.putString("id", id);
+                    chunk.putInt("index", index);
+                    chunk.putInt("count", count);
+                    chunk.putString("data", _base64Encoder.encode(data, offset, Math.min(chunkSize, data.length - offset)));
+                    emitter.emit("CameraCaptureChunk", chunk);
+                }
+                response.putString("id", id);
+                response.putInt("chunks", count);
+                response.putInt("size", data.length);
+                promise.resolve(response);
             }
         });
     }
 
     @ReactMethod
-    public void stopCapture(final ReadableMap options, final Promise promise) {
-        // TODO: implement video capture
+    public void readCaptureBlob(String id, final int offset, final int length, final Promise promise) {
+        final byte[] data = _blobStore.get(id);
+        if (null == data) {
+            promise.reject("Capture blob not found or expired.");
+            return;
+        }
+        if (offset < 0 || length < 0 || offset > data.length) {
+            promise.reject("Invalid capture blob range.");
+            return;
+        }
+        RCTCameraFileWriter.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                promise.resolve(_base64Encoder.encode(data, offset, Math.min(length, data.length - offset)));
+            }
+        });
     }
 
     @ReactMethod
-    public void hasFlash(ReadableMap options, final Promise promise) {
-        Camera camera = RCTCamera.getInstance().acquireCameraInstance(options.getInt("type"));
-        if (null == camera) {
-            promise.reject("No camera found.");
+    public void releaseCaptureBlob(String id, Promise promise) {
+        promise.resolve(_blobStore.remove(id));
+    }
+
+    private void writeToFile(byte[] data, File file, ReadableMap options, final Promise promise) {
+        if (file == null) {
+            promise.reject("Error creating media file.");
             return;
         }
-        List<String> flashModes = camera.getParameters().getSupportedFlashModes();
-        promise.resolve(null != flashModes && !flashModes.isEmpty());
+
+        boolean sync = options.hasKey("fsync") && options.getBoolean("fsync");
+        RCTCameraFileWriter.getInstance().write(data, file, sync, new StorageCallback(data.length, promise));
+        if (options.getInt("target") == RCT_CAMERA_CAPTURE_TARGET_TEMP) {
+            // runs after the write, on the same thread
+            RCTCameraStorage.getInstance().trimTempFiles();
+        }
     }
 
-    private File getOutputMediaFile(int type) {
-        File mediaStorageDir = new File(Environment.getExternalStoragePublicDirectory(
-                Environment.DIRECTORY_PICTURES), "RCTCameraModule");
-
-        // Create the storage directory if it does not exist
-        if (!mediaStorageDir.exists()) {
-            if (!mediaStorageDir.mkdirs()) {
-                Log.e(TAG, "failed to create directory:" + mediaStorageDir.getAbsolutePath());
-                return null;
-            }
-        }
-
-        // Create a media file name
-        String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-        File mediaFile;
-        if (type == MEDIA_TYPE_IMAGE) {
-            mediaFile = new File(mediaStorageDir.getPath() + File.separator +
-                    "IMG_" + timeStamp + ".jpg");
-        } else if (type == MEDIA_TYPE_VIDEO) {
-            mediaFile = new File(mediaStorageDir.getPath() + File.separator +
-                    "VID_" + timeStamp + ".mp4");
-        } else {
-            Log.e(TAG, "Unsupported media type:" + type);
-            return null;
+    /**
+     * Resolves a capture with the stored location, the number of bytes written, the time it took and the bytes
+     * allocated to write them.
+     */
+    private static class StorageCallback implements RCTCameraFileWriter.Callback {
+        private final int _size;
+        private final Promise _promise;
+
+        public StorageCallback(int size, Promise promise) {
+            _size = size;
+            _promise = promise;
+        }
+
+        @Override
+        public void onWritten(Uri uri, long duration, int allocated) {
+            WritableMap response = new WritableNativeMap();
+            response.putString("path", uri.toString());
+            response.putInt("size", _size);
+            response.putDouble("writeMs", duration);
+            response.putInt("allocatedBytes", allocated);
+            _promise.resolve(response);
+        }
+
+        @Override
+        public void onError(String message) {
+            // the directory may have been deleted under the cached handle
+            RCTCameraStorage.getInstance().invalidate();
+            _promise.reject(message);
         }
-        return mediaFile;
     }
 
+    /**
+     * Stop the current video recording. The promise of the capture() call that started it settles once the
+     * recording has been stored. Resolves with whether there was a recording to stop, a stop racing the end
+     * of a recording is not an error.
+     */
+    @ReactMethod
+    public void stopCapture(final Promise promise) {
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CAPTURE, new Runnable() {
+            @Override
+            public void run() {
+                if (RCTCameraPreRollRecorder.getInstance().isRecording()) {
+                    RCTCameraPreRollRecorder.getInstance().stopRecording();
+                    promise.resolve(true);
+                    return;
+                }
+                if (!RCTCameraVideoRecorder.getInstance().isRecording()) {
+                    promise.resolve(false);
+                    return;
+                }
+                RCTCameraVideoRecorder.getInstance().stop();
+                promise.resolve(true);
+            }
+        });
+    }
+
+    @ReactMethod
+    public void hasFlash(final ReadableMap options, final Promise promise) {
+        RCTCamera.getInstance().whenReady(new Runnable() {
+            @Override
+            public void run() {
+                final int type = options.getInt("type");
+                if (null != RCTCamera.getInstance().getCapabilities(type)) {
+                    promise.resolve(RCTCamera.getInstance().getCapabilities(type).hasFlash());
+                    return;
+                }
+                // never opened on this device build, probe the camera on the camera thread
+                RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_OPEN, new Runnable() {
+                    @Override
+                    public void run() {
+                        RCTCamera.Lease lease = RCTCamera.getInstance().leaseCamera(type);
+                        if (null == lease) {
+                            promise.reject("No camera found.");
+                            return;
+                        }
+                        // a view opening the camera right after can still get it during the keep-alive
+                        lease.release();
+                        promise.resolve(RCTCamera.getInstance().getCapabilities(type).hasFlash());
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Resolves once the camera metadata has been loaded in the background, with a breakdown of the startup time.
+     */
+    @ReactMethod
+    public void ready(final Promise promise) {
+        RCTCamera.getInstance().whenReady(new Runnable() {
+            @Override
+            public void run() {
+                RCTCamera camera = RCTCamera.getInstance();
+                WritableMap timings = new WritableNativeMap();
+                timings.putDouble("cameraInfoMs", camera.getCameraInfoTime());
+                timings.putDouble("capabilitiesLoadMs", camera.getCapabilitiesLoadTime());
+                timings.putDouble("readyMs", camera.getReadyTime());
+                timings.putDouble("firstOpenMs", camera.getFirstOpenTime());
+                promise.resolve(timings);
+            }
+        });
+    }
+
+    private File getOutputMediaFile(int type) {
+        return RCTCameraStorage.getInstance().newOutputFile(type);
+    }
 
     private File getTempMediaFile(int type) {
-        try {
-            String timeStamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-            File outputDir = _reactContext.getCacheDir();
-            File outputFile;
-
-            if (type == MEDIA_TYPE_IMAGE) {
-                outputFile = File.createTempFile("IMG_" + timeStamp, ".jpg", outputDir);
-            } else if (type == MEDIA_TYPE_VIDEO) {
-                outputFile = File.createTempFile("VID_" + timeStamp, ".mp4", outputDir);
-            } else {
-                Log.e(TAG, "Unsupported media type:" + type);
-                return null;
-            }
-            return outputFile;
-        } catch (Exception e) {
-            Log.e(TAG, e.getMessage());
-            return null;
-        }
+        return RCTCameraStorage.getInstance().newTempFile(type);
     }
 }
@@ -3,6 +3,7 @@ package com.lwansbrough.RCTCamera;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import com.facebook.react.ReactPackage;
 import com.facebook.react.bridge.NativeModule;
@@ -12,9 +13,35 @@ import com.facebook.react.bridge.JavaScriptModule;
 
 public class RCTCameraPackage implements ReactPackage {
 
+    private RCTCameraBackend _backend = new RCTCameraCamera1Backend();
+
+    /**
+     * Drive a different camera implementation than the device's Camera1 cameras, e.g. RCTCameraFakeBackend
+     * to run without camera hardware. Must be called before the module is created.
+     */
+    public RCTCameraPackage setCameraBackend(RCTCameraBackend backend) {
+        _backend = backend;
+        return this;
+    }
+
+    /**
+     * Register a processor for preview frames, running on its own thread.
+     */
+    public RCTCameraPackage addFrameProcessor(RCTCameraFrameProcessor processor) {
+        return addFrameProcessor(processor, null);
+    }
+
+    /**
+     * Register a processor for preview frames, running on the given executor.
+     */
+    public RCTCameraPackage addFrameProcessor(RCTCameraFrameProcessor processor, Executor executor) {
+        RCTCameraFrameDispatcher.getInstance().register(processor, executor);
+        return this;
+    }
+
     @Override
     public List<NativeModule> createNativeModules(ReactApplicationContext reactApplicationContext) {
-        return Collections.<NativeModule>singletonList(new RCTCameraModule(reactApplicationContext));
+        return Collections.<NativeModule>singletonList(new RCTCameraModule(reactApplicationContext, _backend));
     }
 
     @Override
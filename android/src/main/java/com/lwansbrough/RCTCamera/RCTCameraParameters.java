@@ -0,0 +1,215 @@
+package com.lwansbrough.RCTCamera;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cached camera parameters for one open camera.
+ *
+ * The parameters are fetched once when the camera is opened, in the flattened "key=value;key=value" form
+ * Camera1 uses, and kept as a map. Setters only stage a change when the value actually differs from the
+ * current one, and commit() pushes all staged changes in a single setParameters call, or skips the HAL
+ * round-trip entirely when nothing changed. Must only be used on the camera thread.
+ */
+class RCTCameraParameters {
+    // keys and values as used by android.hardware.Camera.Parameters
+    public static final String KEY_PREVIEW_SIZE = "preview-size";
+    public static final String KEY_PREVIEW_FORMAT = "preview-format";
+    public static final String KEY_PICTURE_SIZE = "picture-size";
+    public static final String KEY_VIDEO_SIZE = "video-size";
+    public static final String KEY_FOCUS_MODE = "focus-mode";
+    public static final String KEY_FLASH_MODE = "flash-mode";
+    public static final String KEY_ROTATION = "rotation";
+    public static final String KEY_RECORDING_HINT = "recording-hint";
+    public static final String SUPPORTED_VALUES_SUFFIX = "-values";
+    public static final String PREVIEW_FORMAT_NV21 = "yuv420sp";
+
+    private static int ourCommits = 0;
+    private static int ourSkippedCommits = 0;
+    private static int ourFailedCommits = 0;
+
+    private final RCTCameraBackend.Device _device;
+    private final Map<String, String> _values = new LinkedHashMap<>(64);
+    private boolean _dirty = false;
+
+    public RCTCameraParameters(RCTCameraBackend.Device device) {
+        _device = device;
+        unflatten(device.getParameters(), _values);
+    }
+
+    public String get(String key) {
+        return _values.get(key);
+    }
+
+    /**
+     * Size stored under the given key, or null if there is none.
+     */
+    public RCTCameraCapabilities.Size getSize(String key) {
+        return parseSize(_values.get(key));
+    }
+
+    public RCTCameraCapabilities.Size getPreviewSize() {
+        return getSize(KEY_PREVIEW_SIZE);
+    }
+
+    public RCTCameraCapabilities.Size getPictureSize() {
+        return getSize(KEY_PICTURE_SIZE);
+    }
+
+    public String getPreviewFormat() {
+        return _values.get(KEY_PREVIEW_FORMAT);
+    }
+
+    public String getFlashMode() {
+        return _values.get(KEY_FLASH_MODE);
+    }
+
+    /**
+     * Current configuration, to bring the same camera back to it with restore() after reopening it.
+     */
+    public String save() {
+        return flatten(_values);
+    }
+
+    /**
+     * Stage a configuration saved from an earlier instance of the same camera. It is applied by the next
+     * commit in one go, and setters asking for the same values afterwards have nothing left to change.
+     */
+    public void restore(String saved) {
+        unflatten(saved, _values);
+        _dirty = true;
+    }
+
+    public void setPictureSize(int width, int height) {
+        set(KEY_PICTURE_SIZE, width + "x" + height);
+    }
+
+    public void setPreviewSize(int width, int height) {
+        set(KEY_PREVIEW_SIZE, width + "x" + height);
+    }
+
+    public void setFlashMode(String flashMode) {
+        set(KEY_FLASH_MODE, flashMode);
+    }
+
+    public void setFocusMode(String focusMode) {
+        set(KEY_FOCUS_MODE, focusMode);
+    }
+
+    public void setRotation(int rotation) {
+        set(KEY_ROTATION, Integer.toString(rotation));
+    }
+
+    public void setRecordingHint(boolean recordingHint) {
+        set(KEY_RECORDING_HINT, recordingHint ? "true" : "false");
+    }
+
+    /**
+     * Apply every staged change in one setParameters call.
+     *
+     * @return false if there was nothing to apply or the camera rejected the changes
+     */
+    public boolean commit() {
+        if (!_dirty) {
+            onCommit(false, false);
+            return false;
+        }
+        _dirty = false;
+        try {
+            _device.setParameters(flatten(_values));
+            onCommit(true, false);
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+            // the staged values were rejected, start over from what the camera actually uses
+            _values.clear();
+            unflatten(_device.getParameters(), _values);
+            onCommit(true, true);
+            return false;
+        }
+    }
+
+    public static synchronized WritableMap getStats() {
+        WritableMap stats = new WritableNativeMap();
+        stats.putInt("commits", ourCommits);
+        stats.putInt("skippedCommits", ourSkippedCommits);
+        stats.putInt("failedCommits", ourFailedCommits);
+        return stats;
+    }
+
+    /**
+     * Number of setParameters calls that went through so far, across all cameras.
+     */
+    public static synchronized int getCommitCount() {
+        return ourCommits;
+    }
+
+    /**
+     * Add the entries of a flattened "key=value;key=value" string to the map, replacing existing ones.
+     */
+    static void unflatten(String flattened, Map<String, String> values) {
+        if (null == flattened) {
+            return;
+        }
+        int start = 0;
+        while (start < flattened.length()) {
+            int end = flattened.indexOf(';', start);
+            if (end < 0) {
+                end = flattened.length();
+            }
+            int separator = flattened.indexOf('=', start);
+            if (separator > start && separator < end) {
+                values.put(flattened.substring(start, separator), flattened.substring(separator + 1, end));
+            }
+            start = end + 1;
+        }
+    }
+
+    static String flatten(Map<String, String> values) {
+        StringBuilder builder = new StringBuilder(values.size() * 32);
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(';');
+            }
+            builder.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return builder.toString();
+    }
+
+    static RCTCameraCapabilities.Size parseSize(String size) {
+        if (null == size) {
+            return null;
+        }
+        int separator = size.indexOf('x');
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            return new RCTCameraCapabilities.Size(
+                    Integer.parseInt(size.substring(0, separator)),
+                    Integer.parseInt(size.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void set(String key, String value) {
+        if (!value.equals(_values.get(key))) {
+            _values.put(key, value);
+            _dirty = true;
+        }
+    }
+
+    private static synchronized void onCommit(boolean applied, boolean failed) {
+        if (!applied) {
+            ourSkippedCommits++;
+        } else if (failed) {
+            ourFailedCommits++;
+        } else {
+            ourCommits++;
+        }
+    }
+}
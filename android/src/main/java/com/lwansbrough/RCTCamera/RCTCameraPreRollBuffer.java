@@ -0,0 +1,192 @@
+package com.lwansbrough.RCTCamera;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Bounded ring of encoded video samples, always starting on a keyframe.
+ *
+ * Samples are grouped by keyframe, and whole groups are evicted from the front once the buffer holds more
+ * than its duration without them, or once it is over its byte budget. A group that alone exceeds the budget
+ * is dropped entirely, the buffer then waits for the next keyframe. Sample arrays of evicted samples are
+ * reused for new ones, so a steady stream of similar sized samples stops allocating.
+ */
+class RCTCameraPreRollBuffer {
+
+    interface Sink {
+        void write(byte[] data, int length, long presentationTimeUs, boolean keyframe);
+    }
+
+    private static final int MAX_POOLED_SAMPLES = 16;
+
+    private final ArrayDeque<Sample> _samples = new ArrayDeque<>();
+    private final ArrayDeque<Sample> _pool = new ArrayDeque<>();
+    private long _maxBytes;
+    private long _maxDurationUs;
+    private long _bytes = 0;
+    private int _keyframes = 0;
+    private int _evicted = 0;
+    private int _skipped = 0;
+
+    public RCTCameraPreRollBuffer(long maxBytes, long maxDurationUs) {
+        _maxBytes = maxBytes;
+        _maxDurationUs = maxDurationUs;
+    }
+
+    public synchronized void setLimits(long maxBytes, long maxDurationUs) {
+        _maxBytes = maxBytes;
+        _maxDurationUs = maxDurationUs;
+        trim();
+    }
+
+    /**
+     * Copy the remaining bytes of the given buffer in as a new sample.
+     *
+     * @return false if the sample was skipped because the buffer is waiting for a keyframe
+     */
+    public synchronized boolean add(ByteBuffer data, long presentationTimeUs, boolean keyframe) {
+        if (!keyframe && _samples.isEmpty()) {
+            _skipped++;
+            return false;
+        }
+        Sample sample = obtain(data.remaining());
+        sample.length = data.remaining();
+        data.get(sample.data, 0, sample.length);
+        sample.presentationTimeUs = presentationTimeUs;
+        sample.keyframe = keyframe;
+        _samples.add(sample);
+        _bytes += sample.length;
+        if (keyframe) {
+            _keyframes++;
+        }
+        trim();
+        return true;
+    }
+
+    /**
+     * Write every buffered sample to the sink, oldest first, and empty the buffer.
+     *
+     * @return the number of samples written
+     */
+    public synchronized int drainTo(Sink sink) {
+        int count = 0;
+        Sample sample;
+        while (null != (sample = _samples.poll())) {
+            sink.write(sample.data, sample.length, sample.presentationTimeUs, sample.keyframe);
+            recycle(sample);
+            count++;
+        }
+        _bytes = 0;
+        _keyframes = 0;
+        return count;
+    }
+
+    public synchronized void clear() {
+        Sample sample;
+        while (null != (sample = _samples.poll())) {
+            recycle(sample);
+        }
+        _bytes = 0;
+        _keyframes = 0;
+    }
+
+    public synchronized long getBytes() {
+        return _bytes;
+    }
+
+    public synchronized long getDurationUs() {
+        if (_samples.isEmpty()) {
+            return 0;
+        }
+        return _samples.peekLast().presentationTimeUs - _samples.peekFirst().presentationTimeUs;
+    }
+
+    public synchronized int getSampleCount() {
+        return _samples.size();
+    }
+
+    public synchronized int getKeyframeCount() {
+        return _keyframes;
+    }
+
+    /**
+     * Samples evicted to stay within the limits.
+     */
+    public synchronized int getEvictedCount() {
+        return _evicted;
+    }
+
+    /**
+     * Samples skipped while waiting for a keyframe.
+     */
+    public synchronized int getSkippedCount() {
+        return _skipped;
+    }
+
+    private void trim() {
+        // drop the oldest group while the remaining groups still cover the duration, or the budget is exceeded
+        while (!_samples.isEmpty()) {
+            boolean overBudget = _bytes > _maxBytes;
+            long secondKeyframeUs = _keyframes > 1 ? secondKeyframeTime() : -1;
+            boolean coveredWithout = secondKeyframeUs >= 0
+                    && _samples.peekLast().presentationTimeUs - secondKeyframeUs >= _maxDurationUs;
+            if (!overBudget && !coveredWithout) {
+                return;
+            }
+            evictGroup();
+        }
+    }
+
+    private long secondKeyframeTime() {
+        boolean first = true;
+        for (Sample sample : _samples) {
+            if (sample.keyframe && !first) {
+                return sample.presentationTimeUs;
+            }
+            first = false;
+        }
+        return -1;
+    }
+
+    private void evictGroup() {
+        Sample sample = _samples.poll();
+        do {
+            _bytes -= sample.length;
+            if (sample.keyframe) {
+                _keyframes--;
+            }
+            _evicted++;
+            recycle(sample);
+            sample = _samples.peek();
+            if (null == sample || sample.keyframe) {
+                return;
+            }
+            _samples.poll();
+        } while (true);
+    }
+
+    private Sample obtain(int size) {
+        Sample sample = _pool.poll();
+        if (null == sample) {
+            sample = new Sample();
+        }
+        if (null == sample.data || sample.data.length < size) {
+            // some headroom, so slightly larger samples later on still fit
+            sample.data = new byte[size + size / 4];
+        }
+        return sample;
+    }
+
+    private void recycle(Sample sample) {
+        if (_pool.size() < MAX_POOLED_SAMPLES) {
+            _pool.add(sample);
+        }
+    }
+
+    private static class Sample {
+        public byte[] data;
+        public int length;
+        public long presentationTimeUs;
+        public boolean keyframe;
+    }
+}
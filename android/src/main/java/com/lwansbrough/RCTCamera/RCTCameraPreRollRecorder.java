@@ -0,0 +1,442 @@
+package com.lwansbrough.RCTCamera;
+
+import android.annotation.TargetApi;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Continuously encodes preview frames into a pre-roll buffer, so recordings can start a few seconds in the past.
+ *
+ * Runs as a frame processor on its own thread while the pre-roll capture mode is on. Frames are encoded to
+ * H.264 with MediaCodec and the encoded samples kept in a RCTCameraPreRollBuffer. Starting a recording
+ * flushes the buffer into a MediaMuxer ahead of the live samples, which then go straight to the muxer until
+ * the recording stops. Video only, and needs MediaMuxer, so Android 4.3 or later.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+class RCTCameraPreRollRecorder implements RCTCameraFrameProcessor {
+
+    public static final boolean SUPPORTED = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    private static final String MIME_TYPE = "video/avc";
+    private static final int FRAME_RATE = 30;
+    private static final int KEYFRAME_INTERVAL = 1;
+    private static final long INPUT_TIMEOUT_US = 5000;
+    private static final int DEFAULT_SECONDS = 5;
+    private static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static final RCTCameraPreRollRecorder ourInstance = new RCTCameraPreRollRecorder();
+    private final Executor _worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "RCTCameraPreRollThread");
+        }
+    });
+    private final RCTCameraPreRollBuffer _buffer = new RCTCameraPreRollBuffer(DEFAULT_MAX_BYTES, DEFAULT_SECONDS * 1000000L);
+    private volatile boolean _enabled = false;
+    private volatile boolean _recording = false;
+    private boolean _registered = false;
+
+    // touched on the worker thread only
+    private MediaCodec _encoder = null;
+    private boolean _semiPlanar;
+    private int _width;
+    private int _height;
+    private ByteBuffer[] _inputBuffers;
+    private ByteBuffer[] _outputBuffers;
+    private byte[] _chroma;
+    private final MediaCodec.BufferInfo _info = new MediaCodec.BufferInfo();
+    private final MediaCodec.BufferInfo _sampleInfo = new MediaCodec.BufferInfo();
+    private MediaFormat _format = null;
+    private MediaMuxer _muxer = null;
+    private int _track;
+    private boolean _waitingForKeyframe;
+    private long _firstSampleUs;
+    private long _lastSampleUs;
+    private int _recordedSamples;
+    private File _file;
+    private RCTCameraVideoRecorder.Callback _callback;
+    private WritableMap _flushStats;
+
+    // metrics, guarded by this
+    private int _encoded = 0;
+    private int _dropped = 0;
+    private int _flushes = 0;
+    private double _lastFlushMs = 0;
+    private double _maxFlushMs = 0;
+
+    public static RCTCameraPreRollRecorder getInstance() {
+        return ourInstance;
+    }
+
+    public boolean isEnabled() {
+        return _enabled;
+    }
+
+    public boolean isRecording() {
+        return _recording;
+    }
+
+    /**
+     * Start or stop encoding preview frames into the pre-roll buffer.
+     */
+    public void setEnabled(boolean enabled) {
+        if (!SUPPORTED) {
+            return;
+        }
+        _enabled = enabled;
+        synchronized (this) {
+            if (enabled && !_registered) {
+                RCTCameraFrameDispatcher.getInstance().register(this, _worker);
+                _registered = true;
+            } else if (!enabled && _registered && !_recording) {
+                // a running recording keeps getting frames, it unregisters once stopped
+                RCTCameraFrameDispatcher.getInstance().unregister(this);
+                _registered = false;
+            }
+        }
+        if (!enabled) {
+            _worker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!_enabled && null == _muxer) {
+                        releaseEncoder();
+                    }
+                }
+            });
+        }
+    }
+
+    public void setLimits(int seconds, int maxBytes) {
+        _buffer.setLimits(maxBytes > 0 ? maxBytes : DEFAULT_MAX_BYTES, (seconds > 0 ? seconds : DEFAULT_SECONDS) * 1000000L);
+    }
+
+    @Override
+    public String getName() {
+        return "preRoll";
+    }
+
+    @Override
+    public void process(byte[] data, int width, int height, int rotation, long timestamp) {
+        if (!_enabled && null == _muxer) {
+            return;
+        }
+        if (null == _encoder || width != _width || height != _height) {
+            releaseEncoder();
+            if (!createEncoder(width, height)) {
+                return;
+            }
+        }
+
+        int index = _encoder.dequeueInputBuffer(INPUT_TIMEOUT_US);
+        if (index < 0) {
+            synchronized (this) {
+                _dropped++;
+            }
+        } else {
+            ByteBuffer input = _inputBuffers[index];
+            input.clear();
+            int size = queueFrame(data, input);
+            _encoder.queueInputBuffer(index, 0, size, timestamp * 1000, 0);
+            synchronized (this) {
+                _encoded++;
+            }
+        }
+        drain();
+    }
+
+    /**
+     * Start a recording beginning with the buffered pre-roll. Can be called from any thread.
+     */
+    public void startRecording(final File file, final int rotation, final long requestedAt, final RCTCameraVideoRecorder.Callback callback) {
+        if (_recording) {
+            callback.onError("Already recording.");
+            return;
+        }
+        _recording = true;
+        _worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (null == _format) {
+                    _recording = false;
+                    callback.onError("Pre-roll is not running.");
+                    return;
+                }
+                long startedAt = SystemClock.elapsedRealtime();
+                try {
+                    _muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+                    _muxer.setOrientationHint(rotation);
+                    _track = _muxer.addTrack(_format);
+                    _muxer.start();
+                } catch (IOException | RuntimeException e) {
+                    abortRecording();
+                    file.delete();
+                    callback.onError("Error starting recording: " + e.getMessage());
+                    return;
+                }
+                _file = file;
+                _callback = callback;
+                _recordedSamples = 0;
+                _firstSampleUs = -1;
+
+                long preRollUs = _buffer.getDurationUs();
+                int flushed = _buffer.drainTo(new RCTCameraPreRollBuffer.Sink() {
+                    @Override
+                    public void write(byte[] data, int length, long presentationTimeUs, boolean keyframe) {
+                        writeSample(ByteBuffer.wrap(data, 0, length), presentationTimeUs, keyframe);
+                    }
+                });
+                // nothing buffered yet, the recording has to start on a fresh keyframe
+                _waitingForKeyframe = flushed == 0;
+                if (_waitingForKeyframe) {
+                    requestKeyframe();
+                }
+                long flushMs = SystemClock.elapsedRealtime() - startedAt;
+                synchronized (RCTCameraPreRollRecorder.this) {
+                    _flushes++;
+                    _lastFlushMs = flushMs;
+                    _maxFlushMs = Math.max(_maxFlushMs, flushMs);
+                }
+                _flushStats = new WritableNativeMap();
+                _flushStats.putDouble("preRollMs", preRollUs / 1000.0);
+                _flushStats.putInt("preRollSamples", flushed);
+                _flushStats.putDouble("flushMs", flushMs);
+                _flushStats.putDouble("startLatencyMs", SystemClock.elapsedRealtime() - requestedAt);
+            }
+        });
+    }
+
+    /**
+     * Stop the current recording, the callback passed to startRecording is called once it is finished.
+     */
+    public void stopRecording() {
+        _worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (null == _muxer) {
+                    return;
+                }
+                final File file = _file;
+                final RCTCameraVideoRecorder.Callback callback = _callback;
+                final WritableMap stats = _flushStats;
+                final int samples = _recordedSamples;
+                final long durationUs = _lastSampleUs - _firstSampleUs;
+                boolean recorded = samples > 0;
+                try {
+                    _muxer.stop();
+                } catch (RuntimeException e) {
+                    recorded = false;
+                }
+                abortRecording();
+                if (!_enabled) {
+                    setEnabled(false);
+                }
+                if (!recorded) {
+                    file.delete();
+                    callback.onError("Recording stopped before any frame was recorded.");
+                    return;
+                }
+                RCTCameraFileWriter.getInstance().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long size = file.length();
+                        stats.putDouble("size", size);
+                        stats.putDouble("durationMs", durationUs / 1000.0);
+                        stats.putInt("width", _width);
+                        stats.putInt("height", _height);
+                        stats.putInt("frames", samples);
+                        stats.putDouble("bitrate", durationUs > 0 ? size * 8000000.0 / durationUs : 0);
+                        callback.onRecorded(file, stats);
+                    }
+                });
+            }
+        });
+    }
+
+    public WritableMap getStats() {
+        WritableMap stats = new WritableNativeMap();
+        stats.putBoolean("enabled", _enabled);
+        stats.putBoolean("recording", _recording);
+        stats.putDouble("bufferedBytes", _buffer.getBytes());
+        stats.putDouble("bufferedMs", _buffer.getDurationUs() / 1000.0);
+        stats.putInt("bufferedSamples", _buffer.getSampleCount());
+        stats.putInt("bufferedKeyframes", _buffer.getKeyframeCount());
+        stats.putInt("evictedSamples", _buffer.getEvictedCount());
+        stats.putInt("skippedSamples", _buffer.getSkippedCount());
+        synchronized (this) {
+            stats.putInt("encodedFrames", _encoded);
+            stats.putInt("droppedFrames", _dropped);
+            stats.putInt("flushes", _flushes);
+            stats.putDouble("lastFlushMs", _lastFlushMs);
+            stats.putDouble("maxFlushMs", _maxFlushMs);
+        }
+        return stats;
+    }
+
+    private boolean createEncoder(int width, int height) {
+        MediaCodecInfo codecInfo = null;
+        int colorFormat = -1;
+        for (int i = 0; i < MediaCodecList.getCodecCount() && null == codecInfo; i++) {
+            MediaCodecInfo candidate = MediaCodecList.getCodecInfoAt(i);
+            if (!candidate.isEncoder()) {
+                continue;
+            }
+            for (String type : candidate.getSupportedTypes()) {
+                if (!type.equalsIgnoreCase(MIME_TYPE)) {
+                    continue;
+                }
+                for (int format : candidate.getCapabilitiesForType(MIME_TYPE).colorFormats) {
+                    if (format == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar
+                            || format == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar) {
+                        codecInfo = candidate;
+                        colorFormat = format;
+                        break;
+                    }
+                }
+            }
+        }
+        if (null == codecInfo) {
+            return false;
+        }
+
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, colorFormat);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, width * height * 4);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, KEYFRAME_INTERVAL);
+        try {
+            _encoder = MediaCodec.createByCodecName(codecInfo.getName());
+            _encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            _encoder.start();
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            releaseEncoder();
+            return false;
+        }
+        _semiPlanar = colorFormat == MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar;
+        _width = width;
+        _height = height;
+        _inputBuffers = _encoder.getInputBuffers();
+        _outputBuffers = _encoder.getOutputBuffers();
+        _chroma = new byte[width * height / 2];
+        return true;
+    }
+
+    private void releaseEncoder() {
+        if (null == _encoder) {
+            return;
+        }
+        try {
+            _encoder.stop();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        _encoder.release();
+        _encoder = null;
+        _format = null;
+        _inputBuffers = null;
+        _outputBuffers = null;
+        _buffer.clear();
+    }
+
+    /**
+     * Copy an NV21 frame into the encoder's input buffer, in the encoder's color format.
+     */
+    private int queueFrame(byte[] data, ByteBuffer input) {
+        int lumaSize = _width * _height;
+        int chromaSize = lumaSize / 2;
+        input.put(data, 0, lumaSize);
+        if (_semiPlanar) {
+            // NV12: same layout as NV21 with U and V swapped
+            for (int i = 0; i < chromaSize; i += 2) {
+                _chroma[i] = data[lumaSize + i + 1];
+                _chroma[i + 1] = data[lumaSize + i];
+            }
+        } else {
+            // I420: all of U, then all of V
+            int quarter = chromaSize / 2;
+            for (int i = 0; i < quarter; i++) {
+                _chroma[i] = data[lumaSize + 2 * i + 1];
+                _chroma[quarter + i] = data[lumaSize + 2 * i];
+            }
+        }
+        input.put(_chroma, 0, chromaSize);
+        return lumaSize + chromaSize;
+    }
+
+    private void drain() {
+        while (true) {
+            int index = _encoder.dequeueOutputBuffer(_info, 0);
+            if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return;
+            } else if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                _outputBuffers = _encoder.getOutputBuffers();
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                _format = _encoder.getOutputFormat();
+            } else if (index >= 0) {
+                if ((_info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && _info.size > 0) {
+                    ByteBuffer output = _outputBuffers[index];
+                    output.position(_info.offset);
+                    output.limit(_info.offset + _info.size);
+                    boolean keyframe = (_info.flags & MediaCodec.BUFFER_FLAG_SYNC_FRAME) != 0;
+                    if (null != _muxer) {
+                        if (!_waitingForKeyframe || keyframe) {
+                            _waitingForKeyframe = false;
+                            writeSample(output, _info.presentationTimeUs, keyframe);
+                        }
+                    } else if (_enabled) {
+                        _buffer.add(output, _info.presentationTimeUs, keyframe);
+                    }
+                }
+                _encoder.releaseOutputBuffer(index, false);
+            }
+        }
+    }
+
+    private void writeSample(ByteBuffer data, long presentationTimeUs, boolean keyframe) {
+        _sampleInfo.set(data.position(), data.remaining(), presentationTimeUs, keyframe ? MediaCodec.BUFFER_FLAG_SYNC_FRAME : 0);
+        _muxer.writeSampleData(_track, data, _sampleInfo);
+        if (_firstSampleUs < 0) {
+            _firstSampleUs = presentationTimeUs;
+        }
+        _lastSampleUs = presentationTimeUs;
+        _recordedSamples++;
+    }
+
+    private void requestKeyframe() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && null != _encoder) {
+            Bundle parameters = new Bundle();
+            parameters.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+            _encoder.setParameters(parameters);
+        }
+    }
+
+    private void abortRecording() {
+        if (null != _muxer) {
+            _muxer.release();
+            _muxer = null;
+        }
+        _file = null;
+        _callback = null;
+        _flushStats = null;
+        _recording = false;
+    }
+
+    private RCTCameraPreRollRecorder() {
+    }
+}
@@ -0,0 +1,127 @@
+package com.lwansbrough.RCTCamera;
+
+/**
+ * Picks the preview size for the view showing it.
+ *
+ * The smallest supported size that still gives the view at least one preview pixel per screen pixel is
+ * used, among those closest to the wanted aspect ratio, so a thumbnail doesn't stream the sensor's largest
+ * preview. Sizes above the megapixel cap are never picked. Views are bucketed into size classes, in quarter
+ * octave steps, so the preview is only reselected when the view size changes noticeably.
+ */
+class RCTCameraPreviewSizePolicy {
+    // largest preview under the cap, regardless of the view
+    public static final int POLICY_MAX = 0;
+    // enough pixels for the view, at the view's aspect ratio
+    public static final int POLICY_MATCH_VIEW = 1;
+    // enough pixels for the view, at the aspect ratio of the captured picture
+    public static final int POLICY_MATCH_CAPTURE_ASPECT = 2;
+
+    // aspect ratios within this relative difference of the best one are considered equally good
+    private static final double ASPECT_TOLERANCE = 0.05;
+
+    private RCTCameraPreviewSizePolicy() {
+    }
+
+    public static int parsePolicy(String policy) {
+        if (null == policy) {
+            return POLICY_MATCH_VIEW;
+        }
+        switch (policy) {
+            case "max":
+                return POLICY_MAX;
+            case "matchCaptureAspect":
+                return POLICY_MATCH_CAPTURE_ASPECT;
+            default:
+                return POLICY_MATCH_VIEW;
+        }
+    }
+
+    /**
+     * Size class of a view, equal for sizes that would hardly change the preview size picked for them.
+     */
+    public static int getSizeClass(int width, int height) {
+        return bucket(width) << 16 | bucket(height);
+    }
+
+    /**
+     * Pick a preview size.
+     *
+     * @param sizes        supported sizes, sorted by area as in RCTCameraCapabilities
+     * @param viewWidth    view width in pixels, in sensor orientation, 0 if unknown
+     * @param viewHeight   view height in pixels, in sensor orientation, 0 if unknown
+     * @param fill         whether the preview must cover the whole view, as opposed to fitting inside it
+     * @param captureAspect aspect ratio of the captured picture, used by POLICY_MATCH_CAPTURE_ASPECT
+     * @param maxPixels    largest preview area allowed, 0 for no limit
+     * @return the size to use, or null if there are no sizes
+     */
+    public static RCTCameraCapabilities.Size select(RCTCameraCapabilities.Size[] sizes, int policy,
+                                                    int viewWidth, int viewHeight, boolean fill,
+                                                    float captureAspect, long maxPixels) {
+        if (sizes.length == 0) {
+            return null;
+        }
+        // sizes are sorted by area, everything up to here is under the cap
+        int count = sizes.length;
+        if (maxPixels > 0) {
+            while (count > 0 && sizes[count - 1].area > maxPixels) {
+                count--;
+            }
+            if (count == 0) {
+                return sizes[0];
+            }
+        }
+        if (policy == POLICY_MAX || viewWidth <= 0 || viewHeight <= 0) {
+            return sizes[count - 1];
+        }
+
+        float aspect = policy == POLICY_MATCH_CAPTURE_ASPECT && captureAspect > 0
+                ? captureAspect
+                : (float) viewWidth / viewHeight;
+
+        // sizes with enough pixels for the view: the best aspect ratio among them, then the smallest
+        double bestError = Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (covers(sizes[i], viewWidth, viewHeight, fill)) {
+                bestError = Math.min(bestError, aspectError(sizes[i], aspect));
+            }
+        }
+        if (bestError != Double.MAX_VALUE) {
+            for (int i = 0; i < count; i++) {
+                if (covers(sizes[i], viewWidth, viewHeight, fill) && aspectError(sizes[i], aspect) <= bestError + ASPECT_TOLERANCE) {
+                    return sizes[i];
+                }
+            }
+        }
+
+        // the view is larger than any allowed size: the best aspect ratio among the larger ones, then the largest
+        long minArea = sizes[count - 1].area / 2;
+        for (int i = count - 1; i >= 0 && sizes[i].area >= minArea; i--) {
+            bestError = Math.min(bestError, aspectError(sizes[i], aspect));
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            if (sizes[i].area >= minArea && aspectError(sizes[i], aspect) <= bestError + ASPECT_TOLERANCE) {
+                return sizes[i];
+            }
+        }
+        return sizes[count - 1];
+    }
+
+    // one preview pixel per view pixel along the axis the preview is scaled to: both axes when filling
+    private static boolean covers(RCTCameraCapabilities.Size size, int viewWidth, int viewHeight, boolean fill) {
+        if (fill) {
+            return size.width >= viewWidth && size.height >= viewHeight;
+        }
+        return size.width >= viewWidth || size.height >= viewHeight;
+    }
+
+    private static double aspectError(RCTCameraCapabilities.Size size, float aspect) {
+        return Math.abs(Math.log(size.aspectRatio / aspect));
+    }
+
+    private static int bucket(int length) {
+        if (length <= 0) {
+            return 0;
+        }
+        return (int) Math.floor(Math.log(length) / Math.log(2) * 4);
+    }
+}
@@ -0,0 +1,43 @@
+package com.lwansbrough.RCTCamera;
+
+/**
+ * Rotation math between the camera sensor, the display and the device.
+ *
+ * Orientations of the device or display are Surface.ROTATION_* values, everything else is in clockwise
+ * degrees.
+ */
+class RCTCameraRotation {
+
+    private RCTCameraRotation() {
+    }
+
+    /**
+     * Clockwise rotation that turns the sensor image upright for the given device orientation.
+     *
+     * @param facing            RCTCameraBackend.CAMERA_FACING_BACK or CAMERA_FACING_FRONT
+     * @param sensorOrientation rotation of the sensor image relative to the device's natural orientation
+     */
+    public static int getCaptureRotation(int facing, int sensorOrientation, int deviceOrientation) {
+        if (facing == RCTCameraBackend.CAMERA_FACING_FRONT) {
+            return (sensorOrientation + deviceOrientation * 90) % 360;
+        }
+        return (sensorOrientation - deviceOrientation * 90 + 360) % 360;
+    }
+
+    /**
+     * Rotation the preview must be shown with for the given display rotation, front cameras being mirrored.
+     */
+    public static int getDisplayOrientation(int facing, int sensorOrientation, int displayRotation) {
+        if (facing == RCTCameraBackend.CAMERA_FACING_FRONT) {
+            return (720 - sensorOrientation - displayRotation * 90) % 360;
+        }
+        return (sensorOrientation - displayRotation * 90 + 360) % 360;
+    }
+
+    /**
+     * Whether an image rotated by the given degrees has its width and height swapped.
+     */
+    public static boolean isSideways(int rotation) {
+        return rotation == 90 || rotation == 270;
+    }
+}
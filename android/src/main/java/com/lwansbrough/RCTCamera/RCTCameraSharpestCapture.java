@@ -0,0 +1,244 @@
+package com.lwansbrough.RCTCamera;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeArray;
+
+/**
+ * Capture of the sharpest of the next few preview frames, e.g. against blurry document shots.
+ *
+ * Frames come one at a time from the frame dispatcher's ring and are scored with RCTCameraSharpness on the
+ * shared encoder pool, frames arriving while one is being scored are skipped. The best frame so far is
+ * copied into a buffer reused for the whole capture, so scoring allocates nothing per frame. Scoring stops
+ * after the given number of frames, or as soon as a frame reaches the threshold. Then either the best frame
+ * is compressed and stored through the capture targets, or a regular still capture is taken right away.
+ */
+class RCTCameraSharpestCapture implements RCTCameraFrameDispatcher.FrameRequest {
+    public static final String OUTPUT_FRAME = "frame";
+    public static final String OUTPUT_STILL = "still";
+
+    interface Still {
+        /**
+         * Take a regular still capture, settling the given promise with its result.
+         */
+        void capture(Promise promise);
+    }
+
+    private static final int DEFAULT_FRAMES = 10;
+    private static final int MAX_FRAMES = 100;
+    private static final int DEFAULT_QUALITY = 90;
+
+    private final RCTCamera.Lease _lease;
+    private final int _rotation;
+    private final int _count;
+    private final double _threshold;
+    private final boolean _takeStill;
+    private final int _quality;
+    private final RCTCameraBurstCapture.Store _store;
+    private final Still _still;
+    private final long _requestedAt;
+    private final Promise _promise;
+    private final RCTCameraSharpness _sharpness = new RCTCameraSharpness();
+    private final double[] _scores;
+
+    // touched on the camera thread only
+    private boolean _scoring = false;
+    private boolean _previewing = true;
+    private boolean _finished = false;
+    private int _scored = 0;
+    private int _skipped = 0;
+
+    // handed to the scoring task and back through the encoder pool and the camera thread's queue
+    private byte[] _frame;
+    private int _width;
+    private int _height;
+    private Runnable _release;
+    private byte[] _best = null;
+    private int _bestWidth;
+    private int _bestHeight;
+    private int _bestIndex = -1;
+    private double _bestScore = -1;
+    private long _scoreTime = 0;
+
+    private final Runnable _scoreTask = new Runnable() {
+        @Override
+        public void run() {
+            score();
+        }
+    };
+    private final Runnable _scoredTask = new Runnable() {
+        @Override
+        public void run() {
+            onScored();
+        }
+    };
+
+    /**
+     * @param requestedAt System.nanoTime() of the capture() call
+     */
+    public RCTCameraSharpestCapture(RCTCamera.Lease lease, int rotation, ReadableMap options,
+                                    RCTCameraBurstCapture.Store store, Still still, long requestedAt, Promise promise) {
+        _lease = lease;
+        _rotation = rotation;
+        _count = Math.max(1, Math.min(MAX_FRAMES, options.hasKey("sharpnessFrames") ? options.getInt("sharpnessFrames") : DEFAULT_FRAMES));
+        _threshold = options.hasKey("sharpnessThreshold") ? options.getDouble("sharpnessThreshold") : 0;
+        _takeStill = options.hasKey("sharpnessOutput") && OUTPUT_STILL.equals(options.getString("sharpnessOutput"));
+        _quality = options.hasKey("jpegQuality") ? options.getInt("jpegQuality") : DEFAULT_QUALITY;
+        _store = store;
+        _still = still;
+        _requestedAt = requestedAt;
+        _promise = promise;
+        _scores = new double[_count];
+    }
+
+    /**
+     * Must be called on the camera thread.
+     */
+    public void start() {
+        if (!RCTCameraFrameDispatcher.getInstance().requestFrame(_lease.camera, this)) {
+            _lease.release();
+            _promise.reject("Sharpest frame capture needs a camera view showing the preview, and no burst capture running.");
+        }
+    }
+
+    @Override
+    public void onFrame(byte[] data, int width, int height, long timestamp, Runnable release) {
+        if (_finished) {
+            RCTCameraExecutor.getInstance().postFrameTask(release);
+            return;
+        }
+        if (_scoring) {
+            _skipped++;
+            RCTCameraExecutor.getInstance().postFrameTask(release);
+            requestNextFrame();
+            return;
+        }
+        _scoring = true;
+        _frame = data;
+        _width = width;
+        _height = height;
+        _release = release;
+        RCTCameraJpeg.execute(_scoreTask);
+        // the next frame is delivered while this one is being scored, unless this one is the last
+        if (_scored + 1 < _count) {
+            requestNextFrame();
+        }
+    }
+
+    @Override
+    public void onCancel() {
+        _previewing = false;
+        if (!_scoring) {
+            finish();
+        }
+    }
+
+    private void requestNextFrame() {
+        if (!RCTCameraFrameDispatcher.getInstance().requestFrame(_lease.camera, this)) {
+            onCancel();
+        }
+    }
+
+    // encoder pool
+    private void score() {
+        long startedAt = System.nanoTime();
+        double score = _sharpness.score(_frame, _width, _height);
+        _scoreTime += RCTCameraMetrics.record(RCTCameraMetrics.STAGE_SHARPNESS_SCORE, startedAt) - startedAt;
+        _scores[_scored] = score;
+        if (score > _bestScore) {
+            int length = _width * _height * 3 / 2;
+            if (null == _best || _best.length < length) {
+                _best = new byte[length];
+            }
+            System.arraycopy(_frame, 0, _best, 0, length);
+            _bestWidth = _width;
+            _bestHeight = _height;
+            _bestIndex = _scored;
+            _bestScore = score;
+        }
+        Runnable release = _release;
+        _frame = null;
+        _release = null;
+        RCTCameraExecutor.getInstance().postFrameTask(release);
+        RCTCameraExecutor.getInstance().postFrameTask(_scoredTask);
+    }
+
+    // camera thread
+    private void onScored() {
+        _scoring = false;
+        _scored++;
+        if (_scored >= _count || _threshold > 0 && _bestScore >= _threshold || !_previewing) {
+            finish();
+        }
+    }
+
+    // camera thread
+    private void finish() {
+        if (_finished) {
+            return;
+        }
+        _finished = true;
+        // a frame still requested is handed back as soon as it arrives
+        _lease.release();
+        if (_scored == 0) {
+            _promise.reject("The camera stopped previewing before a frame could be scored.");
+            return;
+        }
+
+        final Promise promise = new Promise() {
+            @Override
+            public void resolve(Object value) {
+                WritableMap response = (WritableMap) value;
+                putSharpness(response);
+                _promise.resolve(response);
+            }
+
+            @Override
+            public void reject(Throwable reason) {
+                _promise.reject(reason);
+            }
+
+            @Override
+            public void reject(String reason) {
+                _promise.reject(reason);
+            }
+        };
+        if (_takeStill) {
+            _still.capture(promise);
+            return;
+        }
+        RCTCameraJpeg.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] jpeg = null;
+                try {
+                    jpeg = RCTCameraJpeg.compressNv21(_best, _bestWidth, _bestHeight, _quality, _rotation);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                _best = null;
+                if (null == jpeg) {
+                    promise.reject("Error compressing frame.");
+                    return;
+                }
+                _store.store(jpeg, promise);
+            }
+        });
+    }
+
+    private void putSharpness(WritableMap response) {
+        WritableArray scores = new WritableNativeArray();
+        for (int i = 0; i < _scored; i++) {
+            scores.pushDouble(_scores[i]);
+        }
+        response.putDouble("sharpness", _bestScore);
+        response.putBoolean("sharpnessReached", _bestScore >= _threshold);
+        response.putInt("sharpestFrame", _bestIndex);
+        response.putArray("sharpnessScores", scores);
+        response.putInt("framesSkipped", _skipped);
+        response.putDouble("scoreMs", _scoreTime / 1e6 / _scored);
+        response.putDouble("captureMs", (System.nanoTime() - _requestedAt) / 1e6);
+    }
+}
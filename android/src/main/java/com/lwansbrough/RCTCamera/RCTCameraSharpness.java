@@ -0,0 +1,62 @@
+package com.lwansbrough.RCTCamera;
+
+/**
+ * Focus measure of NV21 frames: the variance of the Laplacian of the luma plane.
+ *
+ * Frames are downsampled to at most TARGET_WIDTH columns first, averaging 2x2 pixels per sample, so a frame
+ * scores in about the same time whatever the preview size and sensor noise weighs less. Sharper frames have
+ * stronger edges and score higher; scores only compare between frames of the same scene and size.
+ *
+ * The downsampled plane is kept between frames, so scoring allocates nothing once the largest frame size
+ * has been seen. An instance must only be used by one thread at a time.
+ */
+class RCTCameraSharpness {
+    private static final int TARGET_WIDTH = 320;
+
+    private int[] _luma = new int[0];
+
+    /**
+     * @param data   NV21 frame data, possibly larger than the frame itself
+     * @param width  frame width
+     * @param height frame height
+     * @return the Laplacian variance, in squared luma levels, or 0 for frames too small to score
+     */
+    public double score(byte[] data, int width, int height) {
+        int step = Math.max(1, width / TARGET_WIDTH);
+        int columns = (width - 2) / step + 1;
+        int rows = (height - 2) / step + 1;
+        if (width < 2 || height < 2 || columns < 3 || rows < 3) {
+            return 0;
+        }
+        if (_luma.length < columns * rows) {
+            _luma = new int[columns * rows];
+        }
+        int[] luma = _luma;
+
+        // each sample is the sum of 2x2 pixels, i.e. 4 times their average
+        for (int row = 0; row < rows; row++) {
+            int offset = row * step * width;
+            int index = row * columns;
+            for (int column = 0; column < columns; column++, offset += step) {
+                luma[index + column] = (data[offset] & 0xff) + (data[offset + 1] & 0xff)
+                        + (data[offset + width] & 0xff) + (data[offset + width + 1] & 0xff);
+            }
+        }
+
+        long sum = 0;
+        long sumOfSquares = 0;
+        for (int row = 1; row < rows - 1; row++) {
+            int index = row * columns + 1;
+            for (int column = 1; column < columns - 1; column++, index++) {
+                int laplacian = 4 * luma[index] - luma[index - 1] - luma[index + 1]
+                        - luma[index - columns] - luma[index + columns];
+                sum += laplacian;
+                sumOfSquares += (long) laplacian * laplacian;
+            }
+        }
+        double count = (double) (columns - 2) * (rows - 2);
+        double mean = sum / count;
+        // back from sums of 4 pixels to luma levels
+        return (sumOfSquares / count - mean * mean) / 16;
+    }
+}
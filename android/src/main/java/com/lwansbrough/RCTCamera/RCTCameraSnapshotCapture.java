@@ -0,0 +1,98 @@
+package com.lwansbrough.RCTCamera;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableMap;
+
+/**
+ * Still capture taken from the next preview frame instead of Camera.takePicture, for when latency matters
+ * more than resolution.
+ *
+ * The frame comes from the frame dispatcher's ring and is compressed on the shared encoder pool, so the
+ * preview keeps running throughout. The JPEG is tagged with the capture rotation rather than rotated, and
+ * stored through the regular capture targets. The camera is held until the frame has arrived.
+ */
+class RCTCameraSnapshotCapture implements RCTCameraFrameDispatcher.FrameRequest {
+    private static final int DEFAULT_QUALITY = 90;
+
+    private final RCTCamera.Lease _lease;
+    private final int _rotation;
+    private final int _quality;
+    private final RCTCameraBurstCapture.Store _store;
+    private final long _requestedAt;
+    private final Promise _promise;
+
+    /**
+     * @param requestedAt System.nanoTime() of the capture() call, the reported timings start there
+     */
+    public RCTCameraSnapshotCapture(RCTCamera.Lease lease, int rotation, ReadableMap options,
+                                    RCTCameraBurstCapture.Store store, long requestedAt, Promise promise) {
+        _lease = lease;
+        _rotation = rotation;
+        _quality = options.hasKey("jpegQuality") ? options.getInt("jpegQuality") : DEFAULT_QUALITY;
+        _store = store;
+        _requestedAt = requestedAt;
+        _promise = promise;
+    }
+
+    /**
+     * Must be called on the camera thread.
+     */
+    public void start() {
+        if (!RCTCameraFrameDispatcher.getInstance().requestFrame(_lease.camera, this)) {
+            _lease.release();
+            _promise.reject("Snapshot capture needs a camera view showing the preview, and no burst capture running.");
+        }
+    }
+
+    @Override
+    public void onFrame(final byte[] data, final int width, final int height, long timestamp, final Runnable release) {
+        _lease.release();
+        final long frameAt = RCTCameraMetrics.record(RCTCameraMetrics.STAGE_SNAPSHOT_FRAME, _requestedAt);
+        RCTCameraJpeg.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] jpeg = null;
+                try {
+                    jpeg = RCTCameraJpeg.compressNv21(data, width, height, _quality, _rotation);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+                RCTCameraExecutor.getInstance().postFrameTask(release);
+                if (null == jpeg) {
+                    _promise.reject("Error compressing frame.");
+                    return;
+                }
+                final long encodedAt = RCTCameraMetrics.record(RCTCameraMetrics.STAGE_SNAPSHOT_ENCODE, frameAt);
+                _store.store(jpeg, new Promise() {
+                    @Override
+                    public void resolve(Object value) {
+                        long settledAt = System.nanoTime();
+                        WritableMap response = (WritableMap) value;
+                        response.putDouble("frameMs", (frameAt - _requestedAt) / 1e6);
+                        response.putDouble("encodeMs", (encodedAt - frameAt) / 1e6);
+                        response.putDouble("captureMs", (settledAt - _requestedAt) / 1e6);
+                        _promise.resolve(response);
+                        RCTCameraMetrics.record(RCTCameraMetrics.STAGE_SNAPSHOT_TOTAL, _requestedAt, settledAt);
+                    }
+
+                    @Override
+                    public void reject(Throwable reason) {
+                        _promise.reject(reason);
+                    }
+
+                    @Override
+                    public void reject(String reason) {
+                        _promise.reject(reason);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void onCancel() {
+        _lease.release();
+        _promise.reject("The camera stopped previewing before a frame arrived.");
+    }
+}
@@ -0,0 +1,258 @@
+package com.lwansbrough.RCTCamera;
+
+import android.content.Context;
+import android.os.Environment;
+import android.util.Log;
+
+import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Where disk and temp captures are stored.
+ *
+ * File names carry the capture second plus a sequence number, so captures taken within the same second,
+ * e.g. a burst, never overwrite each other. Directories are created once and then cached. Temp captures
+ * live in their own cache subdirectory, kept within a size and age quota: the least recently modified files
+ * are evicted first, on the I/O thread, after temp captures are written. Files still being recorded into
+ * are pinned and never evicted.
+ */
+class RCTCameraStorage {
+    private static final String TAG = "RCTCameraStorage";
+
+    public static final long DEFAULT_MAX_TEMP_BYTES = 100 * 1024 * 1024;
+    public static final long DEFAULT_MAX_TEMP_AGE = 24 * 60 * 60 * 1000;
+
+    private static RCTCameraStorage ourInstance;
+
+    private final Context _context;
+    private final SimpleDateFormat _format = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US);
+    private final Set<String> _pinned = new HashSet<>();
+    private File _outputDir = null;
+    private File _tempDir = null;
+    private long _second = -1;
+    private String _timestamp;
+    private int _sequence = 0;
+    private long _maxTempBytes = DEFAULT_MAX_TEMP_BYTES;
+    private long _maxTempAge = DEFAULT_MAX_TEMP_AGE;
+    private boolean _trimPending = false;
+    // last trim results
+    private long _tempBytes = 0;
+    private int _tempFiles = 0;
+    private int _evictedFiles = 0;
+    private long _evictedBytes = 0;
+
+    public static RCTCameraStorage getInstance() {
+        return ourInstance;
+    }
+
+    public static synchronized void createInstance(Context context) {
+        if (null == ourInstance) {
+            ourInstance = new RCTCameraStorage(context.getApplicationContext());
+        }
+    }
+
+    private RCTCameraStorage(Context context) {
+        _context = context;
+    }
+
+    /**
+     * New file in the public pictures directory, or null if the directory can't be created.
+     */
+    public synchronized File newOutputFile(int mediaType) {
+        if (null == _outputDir) {
+            File dir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "RCTCameraModule");
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                Log.e(TAG, "failed to create directory:" + dir.getAbsolutePath());
+                return null;
+            }
+            _outputDir = dir;
+        }
+        return newFile(_outputDir, mediaType);
+    }
+
+    /**
+     * New file in the temp capture directory, or null if the directory can't be created.
+     */
+    public synchronized File newTempFile(int mediaType) {
+        if (null == _tempDir) {
+            File dir = new File(_context.getCacheDir(), "RCTCamera");
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                Log.e(TAG, "failed to create directory:" + dir.getAbsolutePath());
+                return null;
+            }
+            _tempDir = dir;
+        }
+        return newFile(_tempDir, mediaType);
+    }
+
+    /**
+     * Forget the cached directories, e.g. after a write failed because one was deleted.
+     */
+    public synchronized void invalidate() {
+        _outputDir = null;
+        _tempDir = null;
+    }
+
+    /**
+     * Keep a temp file from being evicted, while it is still being written to.
+     */
+    public synchronized void pin(File file) {
+        _pinned.add(file.getPath());
+    }
+
+    public synchronized void unpin(File file) {
+        _pinned.remove(file.getPath());
+    }
+
+    /**
+     * @param maxBytes largest total size of temp captures, 0 for no limit
+     * @param maxAge   oldest temp capture kept, in milliseconds, 0 for no limit
+     */
+    public void setTempQuota(long maxBytes, long maxAge) {
+        synchronized (this) {
+            _maxTempBytes = maxBytes;
+            _maxTempAge = maxAge;
+        }
+        trimTempFiles();
+    }
+
+    /**
+     * Evict temp captures over the quota on the I/O thread, after the writes queued so far. Requests made
+     * while a trim is pending are merged into it.
+     */
+    public void trimTempFiles() {
+        synchronized (this) {
+            if (_trimPending) {
+                return;
+            }
+            _trimPending = true;
+        }
+        RCTCameraFileWriter.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (RCTCameraStorage.this) {
+                    _trimPending = false;
+                }
+                trimNow();
+            }
+        });
+    }
+
+    /**
+     * Resolve with the current temp usage, once writes queued so far are done.
+     */
+    public void getUsage(final Promise promise) {
+        RCTCameraFileWriter.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                trimNow();
+                synchronized (RCTCameraStorage.this) {
+                    WritableMap usage = new WritableNativeMap();
+                    usage.putDouble("tempBytes", _tempBytes);
+                    usage.putInt("tempFiles", _tempFiles);
+                    usage.putDouble("maxTempBytes", _maxTempBytes);
+                    usage.putDouble("maxTempAgeSeconds", _maxTempAge / 1000.0);
+                    usage.putInt("evictedFiles", _evictedFiles);
+                    usage.putDouble("evictedBytes", _evictedBytes);
+                    promise.resolve(usage);
+                }
+            }
+        });
+    }
+
+    // must be called while holding the lock
+    private File newFile(File dir, int mediaType) {
+        String prefix;
+        String extension;
+        if (mediaType == RCTCameraModule.MEDIA_TYPE_IMAGE) {
+            prefix = "IMG_";
+            extension = ".jpg";
+        } else if (mediaType == RCTCameraModule.MEDIA_TYPE_VIDEO) {
+            prefix = "VID_";
+            extension = ".mp4";
+        } else {
+            Log.e(TAG, "Unsupported media type:" + mediaType);
+            return null;
+        }
+        // the sequence only restarts once the clock moved past the second it was counting in
+        long second = System.currentTimeMillis() / 1000;
+        if (second > _second) {
+            _second = second;
+            _timestamp = _format.format(new Date(second * 1000));
+            _sequence = 0;
+        }
+        String name = prefix + _timestamp + "_" + String.format(Locale.US, "%03d", _sequence++) + extension;
+        return new File(dir, name);
+    }
+
+    // I/O thread only
+    private void trimNow() {
+        File dir;
+        long maxBytes;
+        long maxAge;
+        Set<String> pinned;
+        synchronized (this) {
+            dir = null != _tempDir ? _tempDir : new File(_context.getCacheDir(), "RCTCamera");
+            maxBytes = _maxTempBytes;
+            maxAge = _maxTempAge;
+            pinned = new HashSet<>(_pinned);
+        }
+        File[] files = dir.listFiles();
+        if (null == files) {
+            return;
+        }
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long total = 0;
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+            total += files[i].length();
+        }
+        // least recently modified first
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer lhs, Integer rhs) {
+                return Long.compare(modified[lhs], modified[rhs]);
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        int count = files.length;
+        int evictedFiles = 0;
+        long evictedBytes = 0;
+        for (Integer i : order) {
+            boolean tooOld = maxAge > 0 && now - modified[i] > maxAge;
+            boolean overQuota = maxBytes > 0 && total > maxBytes;
+            if (!tooOld && !overQuota) {
+                break;
+            }
+            if (pinned.contains(files[i].getPath())) {
+                continue;
+            }
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+                count--;
+                evictedFiles++;
+                evictedBytes += length;
+            }
+        }
+        synchronized (this) {
+            _tempBytes = total;
+            _tempFiles = count;
+            _evictedFiles += evictedFiles;
+            _evictedBytes += evictedBytes;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.lwansbrough.RCTCamera;
+
+import android.hardware.Camera;
+import android.media.CamcorderProfile;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaRecorder;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Records video from an open camera through MediaRecorder.
+ *
+ * Unlocking the camera, preparing and starting the recorder all happen on the camera thread, so neither the
+ * UI nor the bridge thread ever wait on the media server. Frame processors are paused while recording, the
+ * camera belongs to the recorder until it is locked again. Once stopped, the recording is analysed on the
+ * I/O thread for its actual bitrate and the number of frames dropped against the profile's frame rate.
+ */
+class RCTCameraVideoRecorder implements MediaRecorder.OnInfoListener, MediaRecorder.OnErrorListener {
+
+    interface Callback {
+        /**
+         * Called on the I/O thread with the finished recording and its stats.
+         */
+        void onRecorded(File file, WritableMap stats);
+
+        void onError(String message);
+    }
+
+    private static final RCTCameraVideoRecorder ourInstance = new RCTCameraVideoRecorder();
+
+    // touched on the camera thread only
+    private MediaRecorder _recorder = null;
+    private Camera _camera;
+    private CamcorderProfile _profile;
+    private File _file;
+    private Callback _callback;
+    private long _startedAt;
+    private long _startLatency;
+
+    public static RCTCameraVideoRecorder getInstance() {
+        return ourInstance;
+    }
+
+    public boolean isRecording() {
+        return null != _recorder;
+    }
+
+    /**
+     * Start recording into the given file. Must be called on the camera thread while preview is running.
+     *
+     * @param maxDuration stop on its own after that many milliseconds, 0 for no limit
+     * @param requestedAt when the capture was requested, in elapsedRealtime milliseconds, for the start latency
+     */
+    public void start(Camera camera, CamcorderProfile profile, boolean audio, int rotation, int maxDuration,
+                      File file, long requestedAt, Callback callback) {
+        if (isRecording()) {
+            callback.onError("Already recording.");
+            return;
+        }
+
+        RCTCameraFrameDispatcher.getInstance().pause();
+        MediaRecorder recorder = new MediaRecorder();
+        try {
+            camera.unlock();
+            recorder.setCamera(camera);
+            if (audio) {
+                recorder.setAudioSource(MediaRecorder.AudioSource.CAMCORDER);
+            }
+            recorder.setVideoSource(MediaRecorder.VideoSource.CAMERA);
+            if (audio) {
+                recorder.setProfile(profile);
+            } else {
+                // setProfile also configures the audio track, which needs an audio source
+                recorder.setOutputFormat(profile.fileFormat);
+                recorder.setVideoFrameRate(profile.videoFrameRate);
+                recorder.setVideoSize(profile.videoFrameWidth, profile.videoFrameHeight);
+                recorder.setVideoEncodingBitRate(profile.videoBitRate);
+                recorder.setVideoEncoder(profile.videoCodec);
+            }
+            recorder.setOrientationHint(rotation);
+            if (maxDuration > 0) {
+                recorder.setMaxDuration(maxDuration);
+            }
+            recorder.setOutputFile(file.getPath());
+            recorder.setOnInfoListener(this);
+            recorder.setOnErrorListener(this);
+            recorder.prepare();
+            recorder.start();
+        } catch (IOException | RuntimeException e) {
+            recorder.release();
+            lock(camera);
+            file.delete();
+            callback.onError("Error starting recording: " + e.getMessage());
+            return;
+        }
+
+        _recorder = recorder;
+        _camera = camera;
+        _profile = profile;
+        _file = file;
+        _callback = callback;
+        _startedAt = SystemClock.elapsedRealtime();
+        _startLatency = _startedAt - requestedAt;
+    }
+
+    /**
+     * Stop recording and hand the camera back. Must be called on the camera thread.
+     */
+    public void stop() {
+        if (!isRecording()) {
+            return;
+        }
+        MediaRecorder recorder = _recorder;
+        final File file = _file;
+        final Callback callback = _callback;
+        final CamcorderProfile profile = _profile;
+        final long startLatency = _startLatency;
+        final long duration = SystemClock.elapsedRealtime() - _startedAt;
+        _recorder = null;
+        _file = null;
+        _callback = null;
+
+        boolean recorded = true;
+        try {
+            recorder.stop();
+        } catch (RuntimeException e) {
+            // thrown when nothing valid was recorded, e.g. when stopped right after starting
+            recorded = false;
+        }
+        recorder.release();
+        lock(_camera);
+        _camera = null;
+
+        if (!recorded) {
+            file.delete();
+            callback.onError("Recording stopped before any frame was recorded.");
+            return;
+        }
+        RCTCameraFileWriter.getInstance().execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onRecorded(file, analyse(file, profile, duration, startLatency));
+            }
+        });
+    }
+
+    /**
+     * Stop recording if the given camera is recording, before it gets released. Must be called on the camera thread.
+     */
+    public void stop(Camera camera) {
+        if (null != camera && _camera == camera) {
+            stop();
+        }
+    }
+
+    // camera thread, MediaRecorder delivers its events on the looper it was created on
+    @Override
+    public void onInfo(MediaRecorder recorder, int what, int extra) {
+        if (recorder == _recorder && (what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_DURATION_REACHED
+                || what == MediaRecorder.MEDIA_RECORDER_INFO_MAX_FILESIZE_REACHED)) {
+            stop();
+        }
+    }
+
+    @Override
+    public void onError(MediaRecorder recorder, int what, int extra) {
+        if (recorder == _recorder) {
+            stop();
+        }
+    }
+
+    private static void lock(Camera camera) {
+        try {
+            camera.lock();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        RCTCameraFrameDispatcher.getInstance().resume();
+    }
+
+    private static WritableMap analyse(File file, CamcorderProfile profile, long duration, long startLatency) {
+        long size = file.length();
+        int frames = countVideoFrames(file);
+        int expectedFrames = Math.round(duration * profile.videoFrameRate / 1000f);
+
+        WritableMap stats = new WritableNativeMap();
+        stats.putDouble("size", size);
+        stats.putDouble("durationMs", duration);
+        stats.putDouble("startLatencyMs", startLatency);
+        stats.putInt("width", profile.videoFrameWidth);
+        stats.putInt("height", profile.videoFrameHeight);
+        stats.putInt("frameRate", profile.videoFrameRate);
+        stats.putInt("targetBitrate", profile.videoBitRate);
+        stats.putDouble("bitrate", duration > 0 ? size * 8000.0 / duration : 0);
+        stats.putInt("frames", frames);
+        stats.putInt("droppedFrames", frames < 0 ? 0 : Math.max(0, expectedFrames - frames));
+        return stats;
+    }
+
+    /**
+     * Number of samples in the video track, or -1 if the file can't be read.
+     */
+    private static int countVideoFrames(File file) {
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(file.getPath());
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+                if (null != mime && mime.startsWith("video/")) {
+                    extractor.selectTrack(i);
+                    int frames = 0;
+                    while (extractor.getSampleTime() >= 0) {
+                        frames++;
+                        extractor.advance();
+                    }
+                    return frames;
+                }
+            }
+            return -1;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private RCTCameraVideoRecorder() {
+    }
+}
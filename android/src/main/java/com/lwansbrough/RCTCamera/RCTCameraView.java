@@ -4,43 +4,158 @@
 
 package com.lwansbrough.RCTCamera;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.*;
 import android.hardware.SensorManager;
+import android.hardware.display.DisplayManager;
+import android.os.Build;
+import android.view.Display;
 import android.view.OrientationEventListener;
 import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.view.View;
 
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+
 public class RCTCameraView extends ViewGroup {
+    private static int ourLayouts = 0;
+    private static int ourAvoidedLayouts = 0;
+    private static int ourRotationChanges = 0;
+
+    private final Display _display;
+    // display rotation changes are reported by a DisplayListener from API 17 on, polled on sensor events before
     private final OrientationEventListener _orientationListener;
+    private final Object _displayListener;
     private final Context _context;
+    private final Runnable _layoutTask = new Runnable() {
+        @Override
+        public void run() {
+            _layoutPending = false;
+            layoutViewFinder();
+        }
+    };
+    private volatile boolean _layoutPending = false;
+    private int _viewFinderLeft = 0;
+    private int _viewFinderTop = 0;
+    private int _viewFinderRight = 0;
+    private int _viewFinderBottom = 0;
     private RCTCameraViewFinder _viewFinder = null;
     private int _actualDeviceOrientation = -1;
     private int _aspect = RCTCameraModule.RCT_CAMERA_ASPECT_FIT;
     private String _captureQuality = "high";
     private int _torchMode = -1;
     private int _flashMode = -1;
+    private int _captureMode = -1;
+    private int _previewSizePolicy = -1;
+    private double _maxPreviewMegapixels = 0;
+    private int _viewSizeClass = -1;
+    private int _viewSizeAspect = -1;
 
     public RCTCameraView(Context context) {
         super(context);
         this._context = context;
-        setActualDeviceOrientation(context);
+        _display = ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
+        setActualDeviceOrientation();
 
-        _orientationListener = new OrientationEventListener(context, SensorManager.SENSOR_DELAY_NORMAL) {
-            @Override
-            public void onOrientationChanged(int orientation) {
-                if (setActualDeviceOrientation(_context)) {
-                    layoutViewFinder();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            _orientationListener = null;
+            _displayListener = createDisplayListener();
+        } else {
+            _displayListener = null;
+            _orientationListener = new OrientationEventListener(context, SensorManager.SENSOR_DELAY_NORMAL) {
+                @Override
+                public void onOrientationChanged(int orientation) {
+                    setActualDeviceOrientation();
                 }
+            };
+        }
+
+        // preview sizes may only become known once the camera finished initializing in the background
+        RCTCamera.getInstance().whenReady(new Runnable() {
+            @Override
+            public void run() {
+                postLayoutViewFinder();
             }
-        };
+        });
+    }
 
-        if (_orientationListener.canDetectOrientation()) {
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        // captures with the auto orientation read the orientation kept up to date while the view is shown
+        RCTSensorOrientationChecker.getInstance().acquire();
+        if (null != _displayListener) {
+            registerDisplayListener();
+        } else if (_orientationListener.canDetectOrientation()) {
             _orientationListener.enable();
+        }
+        // the display may have rotated while detached
+        setActualDeviceOrientation();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        RCTSensorOrientationChecker.getInstance().release();
+        if (null != _displayListener) {
+            unregisterDisplayListener();
         } else {
             _orientationListener.disable();
         }
+        super.onDetachedFromWindow();
+    }
+
+    public static synchronized WritableMap getLayoutStats() {
+        WritableMap stats = new WritableNativeMap();
+        stats.putInt("layouts", ourLayouts);
+        stats.putInt("avoidedLayouts", ourAvoidedLayouts);
+        stats.putInt("rotationChanges", ourRotationChanges);
+        return stats;
+    }
+
+    private static synchronized void onLayoutRequest(boolean avoided) {
+        if (avoided) {
+            ourAvoidedLayouts++;
+        } else {
+            ourLayouts++;
+        }
+    }
+
+    private static synchronized void onRotationChange() {
+        ourRotationChanges++;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private Object createDisplayListener() {
+        return new DisplayManager.DisplayListener() {
+            @Override
+            public void onDisplayAdded(int displayId) {
+            }
+
+            @Override
+            public void onDisplayRemoved(int displayId) {
+            }
+
+            @Override
+            public void onDisplayChanged(int displayId) {
+                if (displayId == _display.getDisplayId()) {
+                    setActualDeviceOrientation();
+                }
+            }
+        };
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void registerDisplayListener() {
+        DisplayManager displayManager = (DisplayManager) _context.getSystemService(Context.DISPLAY_SERVICE);
+        displayManager.registerDisplayListener((DisplayManager.DisplayListener) _displayListener, null);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void unregisterDisplayListener() {
+        DisplayManager displayManager = (DisplayManager) _context.getSystemService(Context.DISPLAY_SERVICE);
+        displayManager.unregisterDisplayListener((DisplayManager.DisplayListener) _displayListener);
     }
 
     @Override
@@ -62,6 +177,14 @@ public class RCTCameraView extends ViewGroup {
         layoutViewFinder();
     }
 
+    public void setPreviewSizePolicy(int policy, double maxMegapixels) {
+        this._previewSizePolicy = policy;
+        this._maxPreviewMegapixels = maxMegapixels;
+        if (this._viewFinder != null) {
+            this._viewFinder.setPreviewSizePolicy(policy, maxMegapixels);
+        }
+    }
+
     public void setCameraType(final int type) {
         if (null != this._viewFinder) {
             this._viewFinder.setCameraType(type);
@@ -73,6 +196,12 @@ public class RCTCameraView extends ViewGroup {
             if (-1 != this._torchMode) {
                 _viewFinder.setFlashMode(this._torchMode);
             }
+            if (-1 != this._captureMode) {
+                _viewFinder.setCaptureMode(this._captureMode);
+            }
+            if (-1 != this._previewSizePolicy) {
+                _viewFinder.setPreviewSizePolicy(this._previewSizePolicy, this._maxPreviewMegapixels);
+            }
             addView(_viewFinder);
         }
     }
@@ -84,6 +213,13 @@ public class RCTCameraView extends ViewGroup {
         }
     }
 
+    public void setCaptureMode(int captureMode) {
+        this._captureMode = captureMode;
+        if (this._viewFinder != null) {
+            this._viewFinder.setCaptureMode(captureMode);
+        }
+    }
+
     public void setTorchMode(int torchMode) {
         this._torchMode = torchMode;
         if (this._viewFinder != null) {
@@ -98,34 +234,72 @@ public class RCTCameraView extends ViewGroup {
         }
     }
 
-    public void setOrientation(int orientation) {
-        RCTCamera.getInstance().setOrientation(orientation);
-        if (this._viewFinder != null) {
-            layoutViewFinder();
+    public void setOrientation(final int orientation) {
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CONFIGURE, new Runnable() {
+            @Override
+            public void run() {
+                RCTCamera.getInstance().setOrientation(orientation);
+                postLayoutViewFinder();
+            }
+        });
+    }
+
+    private void setActualDeviceOrientation() {
+        final int actualDeviceOrientation = _display.getRotation();
+        if (_actualDeviceOrientation == actualDeviceOrientation) {
+            return;
         }
+        _actualDeviceOrientation = actualDeviceOrientation;
+        onRotationChange();
+        // only the camera being shown needs its layout adjusted now, others are adjusted when opened
+        final int type = null != _viewFinder ? _viewFinder.getCameraType() : -1;
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CONFIGURE, new Runnable() {
+            @Override
+            public void run() {
+                RCTCamera.getInstance().setActualDeviceOrientation(type, actualDeviceOrientation);
+                postLayoutViewFinder();
+            }
+        });
     }
 
-    private boolean setActualDeviceOrientation(Context context) {
-        int actualDeviceOrientation = ((WindowManager) context.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay().getOrientation();
-        if (_actualDeviceOrientation != actualDeviceOrientation) {
-            _actualDeviceOrientation = actualDeviceOrientation;
-            RCTCamera.getInstance().setActualDeviceOrientation(_actualDeviceOrientation);
-            return true;
-        } else {
-            return false;
+    /**
+     * Lay the view finder out on the next frame. Can be called from any thread, requests made before that
+     * frame are merged into a single layout.
+     */
+    void postLayoutViewFinder() {
+        if (_layoutPending) {
+            onLayoutRequest(true);
+            return;
         }
+        _layoutPending = true;
+        postOnAnimation(_layoutTask);
     }
 
     private void layoutViewFinder() {
         layoutViewFinder(this.getLeft(), this.getTop(), this.getRight(), this.getBottom());
     }
 
+    // the preview size is only picked again once the view size changed noticeably
+    private void updateViewSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int sizeClass = RCTCameraPreviewSizePolicy.getSizeClass(width, height);
+        if (sizeClass == _viewSizeClass && _aspect == _viewSizeAspect) {
+            return;
+        }
+        _viewSizeClass = sizeClass;
+        _viewSizeAspect = _aspect;
+        _viewFinder.setViewSize(width, height, _aspect != RCTCameraModule.RCT_CAMERA_ASPECT_FIT);
+    }
+
     private void layoutViewFinder(int left, int top, int right, int bottom) {
         if (null == _viewFinder) {
             return;
         }
         float width = right - left;
         float height = bottom - top;
+        updateViewSize((int) width, (int) height);
         int viewfinderWidth;
         int viewfinderHeight;
         double ratio;
@@ -158,7 +332,19 @@ public class RCTCameraView extends ViewGroup {
         int viewFinderPaddingX = (int) ((width - viewfinderWidth) / 2);
         int viewFinderPaddingY = (int) ((height - viewfinderHeight) / 2);
 
-        this._viewFinder.layout(viewFinderPaddingX, viewFinderPaddingY, viewFinderPaddingX + viewfinderWidth, viewFinderPaddingY + viewfinderHeight);
-        this.postInvalidate(this.getLeft(), this.getTop(), this.getRight(), this.getBottom());
+        int viewFinderRight = viewFinderPaddingX + viewfinderWidth;
+        int viewFinderBottom = viewFinderPaddingY + viewfinderHeight;
+        if (viewFinderPaddingX == _viewFinderLeft && viewFinderPaddingY == _viewFinderTop
+                && viewFinderRight == _viewFinderRight && viewFinderBottom == _viewFinderBottom && !_viewFinder.isLayoutRequested()) {
+            onLayoutRequest(true);
+            return;
+        }
+        _viewFinderLeft = viewFinderPaddingX;
+        _viewFinderTop = viewFinderPaddingY;
+        _viewFinderRight = viewFinderRight;
+        _viewFinderBottom = viewFinderBottom;
+        onLayoutRequest(false);
+        this._viewFinder.layout(viewFinderPaddingX, viewFinderPaddingY, viewFinderRight, viewFinderBottom);
+        this.invalidate();
     }
 }
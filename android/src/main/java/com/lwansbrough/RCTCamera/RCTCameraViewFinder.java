@@ -6,17 +6,62 @@ package com.lwansbrough.RCTCamera;
 
 import android.content.Context;
 import android.graphics.SurfaceTexture;
-import android.hardware.Camera;
+import android.os.SystemClock;
 import android.view.TextureView;
 
-import java.util.List;
+import com.facebook.react.bridge.LifecycleEventListener;
+import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.bridge.WritableNativeMap;
+import com.facebook.react.modules.core.RCTNativeAppEventEmitter;
 
-class RCTCameraViewFinder extends TextureView implements TextureView.SurfaceTextureListener {
-    private int _cameraType;
-    private SurfaceTexture _surfaceTexture;
-    private boolean _isStarting;
-    private boolean _isStopping;
-    private Camera _camera;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Shows the preview of one camera at a time.
+ *
+ * Opening, switching and releasing all run as commands on the camera thread. A switch is a single command
+ * that opens whatever type was requested last when it runs, so a burst of toggles opens one camera, or none
+ * if the toggles cancel out. While the host is paused the camera is closed, so other apps can use it, and its
+ * configuration is kept to be restored in a single commit on resume. The time from the request to the first
+ * frame reaching the texture is measured, and reported with a CameraFirstFrame event.
+ */
+class RCTCameraViewFinder extends TextureView implements TextureView.SurfaceTextureListener, LifecycleEventListener {
+    private static final int STATE_CLOSED = 0;
+    private static final int STATE_OPENING = 1;
+    private static final int STATE_WAITING_FIRST_FRAME = 2;
+    private static final int STATE_PREVIEWING = 3;
+
+    private static final int REASON_START = 0;
+    private static final int REASON_SWITCH = 1;
+    private static final int REASON_RESUME = 2;
+    private static final String[] REASON_NAMES = {"start", "switch", "resume"};
+
+    private static int ourStarts = 0;
+    private static int ourSwitches = 0;
+    private static int ourCoalescedSwitches = 0;
+    private static int ourResumes = 0;
+    private static long ourLastStartLatency = -1;
+    private static long ourLastSwitchLatency = -1;
+    private static long ourTotalSwitchLatency = 0;
+    private static long ourMaxSwitchLatency = 0;
+    private static long ourLastResumeLatency = -1;
+    private static long ourTotalResumeLatency = 0;
+
+    // requested type, the open camera only follows it once the switch command has run
+    private volatile int _cameraType;
+    private volatile SurfaceTexture _surfaceTexture;
+    private final AtomicBoolean _switchPending = new AtomicBoolean(false);
+    private volatile int _state = STATE_CLOSED;
+    // when the preview now being started was requested, why, and the commits done before it was started
+    private volatile long _previewRequestedAt;
+    private volatile int _previewReason;
+    private volatile int _previewCommits;
+    // touched on the UI thread only
+    private boolean _suspended = false;
+    private long _resumeRequestedAt = -1;
+    // touched on the camera thread only
+    private RCTCamera.Lease _lease;
 
     public RCTCameraViewFinder(Context context, int type) {
         super(context);
@@ -24,10 +69,58 @@ class RCTCameraViewFinder extends TextureView implements TextureView.SurfaceText
         this._cameraType = type;
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (getContext() instanceof ReactContext) {
+            ((ReactContext) getContext()).addLifecycleEventListener(this);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        if (getContext() instanceof ReactContext) {
+            ((ReactContext) getContext()).removeLifecycleEventListener(this);
+        }
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    public void onHostResume() {
+        if (!_suspended) {
+            return;
+        }
+        _suspended = false;
+        _resumeRequestedAt = SystemClock.elapsedRealtime();
+        // otherwise the camera is reopened once the surface is available again
+        if (_surfaceTexture != null) {
+            startCamera(_resumeRequestedAt, REASON_RESUME);
+            _resumeRequestedAt = -1;
+        }
+    }
+
+    @Override
+    public void onHostPause() {
+        suspend();
+    }
+
+    @Override
+    public void onHostDestroy() {
+        suspend();
+    }
+
     @Override
     public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
         _surfaceTexture = surface;
-        startCamera();
+        if (_suspended) {
+            return;
+        }
+        if (_resumeRequestedAt != -1) {
+            startCamera(_resumeRequestedAt, REASON_RESUME);
+            _resumeRequestedAt = -1;
+        } else {
+            startCamera(SystemClock.elapsedRealtime(), REASON_START);
+        }
     }
 
     @Override
@@ -35,14 +128,76 @@ class RCTCameraViewFinder extends TextureView implements TextureView.SurfaceText
     }
 
     @Override
-    public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+    public boolean onSurfaceTextureDestroyed(final SurfaceTexture surface) {
         _surfaceTexture = null;
-        stopCamera();
-        return true;
+        // the camera keeps rendering into the surface until the release command has run,
+        // so release it from the camera thread instead of letting the TextureView do it now
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_RELEASE, new Runnable() {
+            @Override
+            public void run() {
+                releaseCamera();
+                surface.release();
+            }
+        });
+        return false;
     }
 
     @Override
     public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+        if (_state != STATE_WAITING_FIRST_FRAME) {
+            return;
+        }
+        _state = STATE_PREVIEWING;
+        onFirstFrame(_cameraType, SystemClock.elapsedRealtime() - _previewRequestedAt, _previewReason, _previewCommits);
+    }
+
+    public static synchronized WritableMap getSwitchStats() {
+        WritableMap stats = new WritableNativeMap();
+        stats.putInt("starts", ourStarts);
+        stats.putInt("switches", ourSwitches);
+        stats.putInt("coalescedSwitches", ourCoalescedSwitches);
+        stats.putDouble("lastStartMs", ourLastStartLatency);
+        stats.putDouble("lastSwitchMs", ourLastSwitchLatency);
+        stats.putDouble("averageSwitchMs", ourSwitches == 0 ? 0 : (double) ourTotalSwitchLatency / ourSwitches);
+        stats.putDouble("maxSwitchMs", ourMaxSwitchLatency);
+        stats.putInt("resumes", ourResumes);
+        stats.putDouble("lastResumeMs", ourLastResumeLatency);
+        stats.putDouble("averageResumeMs", ourResumes == 0 ? 0 : (double) ourTotalResumeLatency / ourResumes);
+        return stats;
+    }
+
+    private static synchronized void onSwitchCoalesced() {
+        ourCoalescedSwitches++;
+    }
+
+    private void onFirstFrame(int type, long latency, int reason, int commits) {
+        synchronized (RCTCameraViewFinder.class) {
+            switch (reason) {
+                case REASON_SWITCH:
+                    ourSwitches++;
+                    ourLastSwitchLatency = latency;
+                    ourTotalSwitchLatency += latency;
+                    ourMaxSwitchLatency = Math.max(ourMaxSwitchLatency, latency);
+                    break;
+                case REASON_RESUME:
+                    ourResumes++;
+                    ourLastResumeLatency = latency;
+                    ourTotalResumeLatency += latency;
+                    break;
+                default:
+                    ourStarts++;
+                    ourLastStartLatency = latency;
+            }
+        }
+        if (!(getContext() instanceof ReactContext)) {
+            return;
+        }
+        WritableMap event = new WritableNativeMap();
+        event.putInt("type", type);
+        event.putString("reason", REASON_NAMES[reason]);
+        event.putDouble("latencyMs", latency);
+        event.putInt("parameterCommits", commits);
+        ((ReactContext) getContext()).getJSModule(RCTNativeAppEventEmitter.class).emit("CameraFirstFrame", event);
     }
 
       public double getRatio() {
@@ -51,89 +206,251 @@ class RCTCameraViewFinder extends TextureView implements TextureView.SurfaceText
         return ((float) width) / ((float) height);
     }
 
+    public int getCameraType() {
+        return _cameraType;
+    }
+
     public void setCameraType(final int type) {
         if (this._cameraType == type) {
             return;
         }
-        new Thread(new Runnable() {
+        _cameraType = type;
+        if (_surfaceTexture == null || _suspended) {
+            // the requested type is opened once the surface is available, or the host resumed
+            return;
+        }
+        if (!_switchPending.compareAndSet(false, true)) {
+            // the pending switch reads the type when it runs
+            onSwitchCoalesced();
+            return;
+        }
+        final long requestedAt = SystemClock.elapsedRealtime();
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_OPEN, new Runnable() {
+            @Override
+            public void run() {
+                switchCamera(requestedAt);
+            }
+        });
+    }
+
+    public void setCaptureQuality(final String captureQuality) {
+        final int type = _cameraType;
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CONFIGURE, new Runnable() {
+            @Override
+            public void run() {
+                RCTCamera.getInstance().setCaptureQuality(type, captureQuality);
+                // the preview may follow the aspect ratio of the picture
+                if (RCTCamera.getInstance().updatePreviewSize(type)) {
+                    restartPreview(type);
+                } else {
+                    RCTCamera.getInstance().commitParameters(type);
+                }
+            }
+        });
+    }
+
+    /**
+     * Pick the preview size for the view the finder is shown in.
+     *
+     * @param fill whether the preview covers the view, as opposed to fitting inside it
+     */
+    public void setViewSize(final int width, final int height, final boolean fill) {
+        final int type = _cameraType;
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CONFIGURE, new Runnable() {
             @Override
             public void run() {
-                stopPreview();
-                _cameraType = type;
-                startPreview();
+                if (RCTCamera.getInstance().setViewSize(type, width, height, fill)) {
+                    restartPreview(type);
+                }
             }
-        }).start();
+        });
     }
 
-    public void setCaptureQuality(String captureQuality) {
-        RCTCamera.getInstance().setCaptureQuality(_cameraType, captureQuality);
+    public void setPreviewSizePolicy(final int policy, final double maxMegapixels) {
+        final int type = _cameraType;
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CONFIGURE, new Runnable() {
+            @Override
+            public void run() {
+                if (RCTCamera.getInstance().setPreviewSizePolicy(type, policy, maxMegapixels)) {
+                    restartPreview(type);
+                }
+            }
+        });
     }
 
-    public void setTorchMode(int torchMode) {
-        RCTCamera.getInstance().setTorchMode(_cameraType, torchMode);
+    public void setCaptureMode(final int captureMode) {
+        final int type = _cameraType;
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CONFIGURE, new Runnable() {
+            @Override
+            public void run() {
+                RCTCamera.getInstance().setCaptureMode(type, captureMode);
+                RCTCamera.getInstance().commitParameters(type);
+            }
+        });
     }
 
-    public void setFlashMode(int flashMode) {
-        RCTCamera.getInstance().setTorchMode(_cameraType, flashMode);
+    public void setTorchMode(final int torchMode) {
+        final int type = _cameraType;
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CONFIGURE, new Runnable() {
+            @Override
+            public void run() {
+                RCTCamera.getInstance().setTorchMode(type, torchMode);
+                RCTCamera.getInstance().commitParameters(type);
+            }
+        });
     }
 
-    private void startPreview() {
-        if (_surfaceTexture != null) {
-            startCamera();
+    public void setFlashMode(final int flashMode) {
+        final int type = _cameraType;
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_CONFIGURE, new Runnable() {
+            @Override
+            public void run() {
+                RCTCamera.getInstance().setTorchMode(type, flashMode);
+                RCTCamera.getInstance().commitParameters(type);
+            }
+        });
+    }
+
+    private void startCamera(final long requestedAt, final int reason) {
+        final int type = _cameraType;
+        RCTCameraExecutor executor = RCTCameraExecutor.getInstance();
+        executor.execute(RCTCameraExecutor.COMMAND_OPEN, new Runnable() {
+            @Override
+            public void run() {
+                _previewCommits = RCTCameraParameters.getCommitCount();
+                openCamera(type);
+            }
+        });
+        executor.execute(RCTCameraExecutor.COMMAND_CONFIGURE, new Runnable() {
+            @Override
+            public void run() {
+                configureCamera(type);
+            }
+        });
+        executor.execute(RCTCameraExecutor.COMMAND_START_PREVIEW, new Runnable() {
+            @Override
+            public void run() {
+                startCameraPreview(type, requestedAt, reason);
+            }
+        });
+    }
+
+    // must be called on the camera thread, opens the type requested last unless it is already open
+    private void switchCamera(long requestedAt) {
+        _switchPending.set(false);
+        int type = _cameraType;
+        if (_lease != null && _lease.type == type) {
+            return;
         }
+        releaseCamera();
+        _previewCommits = RCTCameraParameters.getCommitCount();
+        openCamera(type);
+        configureCamera(type);
+        startCameraPreview(type, requestedAt, REASON_SWITCH);
     }
 
-    private void stopPreview() {
-        if (_camera != null) {
-            stopCamera();
+    // releases the camera right away, the parameters it was left with are restored when it is reopened
+    private void suspend() {
+        if (_suspended) {
+            return;
         }
+        _suspended = true;
+        _resumeRequestedAt = -1;
+        RCTCameraExecutor.getInstance().execute(RCTCameraExecutor.COMMAND_RELEASE, new Runnable() {
+            @Override
+            public void run() {
+                releaseCamera();
+                RCTCamera.getInstance().closeIdleCameras();
+            }
+        });
     }
 
-    synchronized private void startCamera() {
-        if (!_isStarting) {
-            _isStarting = true;
-            try {
-                _camera = RCTCamera.getInstance().acquireCameraInstance(_cameraType);
-                Camera.Parameters parameters = _camera.getParameters();
-                // set autofocus
-                List<String> focusModes = parameters.getSupportedFocusModes();
-                if (focusModes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
-                    parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
-                }
-                // set picture size
-                // defaults to max available size
-                Camera.Size optimalPictureSize = RCTCamera.getInstance().getBestPictureSize(_cameraType, Integer.MAX_VALUE, Integer.MAX_VALUE);
-                parameters.setPictureSize(optimalPictureSize.width, optimalPictureSize.height);
-
-                _camera.setParameters(parameters);
-                _camera.setPreviewTexture(_surfaceTexture);
-                _camera.startPreview();
-            } catch (NullPointerException e) {
-                e.printStackTrace();
-            } catch (Exception e) {
-                e.printStackTrace();
-                stopCamera();
-            } finally {
-                _isStarting = false;
-            }
-        }
-    }
-
-    synchronized private void stopCamera() {
-        if (!_isStopping) {
-            _isStopping = true;
-            try {
-                if (_camera != null) {
-                    _camera.stopPreview();
-                    RCTCamera.getInstance().releaseCameraInstance(_cameraType);
-                    _camera = null;
-                }
+    // must be called on the camera thread
+    private void openCamera(int type) {
+        if (_surfaceTexture != null && _lease == null) {
+            _state = STATE_OPENING;
+            // reuses the camera if another view or the keep-alive still holds it open
+            _lease = RCTCamera.getInstance().leaseCamera(type);
+            if (null == _lease) {
+                _state = STATE_CLOSED;
+            }
+        }
+    }
 
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                _isStopping = false;
+    // must be called on the camera thread, parameters restored from an earlier open usually leave nothing to commit
+    private void configureCamera(int type) {
+        RCTCameraParameters parameters = RCTCamera.getInstance().getParameters(type);
+        if (_lease == null || parameters == null) {
+            return;
+        }
+        // set autofocus and recording hint for the current capture mode
+        RCTCamera.getInstance().setCaptureMode(type, RCTCamera.getInstance().getCaptureMode());
+        // set picture size
+        // defaults to max available size
+        RCTCameraCapabilities.Size optimalPictureSize = RCTCamera.getInstance().getBestPictureSize(type, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        parameters.setPictureSize(optimalPictureSize.width, optimalPictureSize.height);
+        // preview isn't running yet, a preview size following the picture's aspect ratio can simply be staged
+        RCTCamera.getInstance().updatePreviewSize(type);
+
+        parameters.commit();
+    }
+
+    // must be called on the camera thread
+    private void startCameraPreview(int type, long requestedAt, int reason) {
+        if (_lease == null || _surfaceTexture == null || _lease.type != type) {
+            return;
+        }
+        try {
+            _previewRequestedAt = requestedAt;
+            _previewReason = reason;
+            _previewCommits = RCTCameraParameters.getCommitCount() - _previewCommits;
+            _state = STATE_WAITING_FIRST_FRAME;
+            _lease.startPreview(_surfaceTexture);
+            // the preview size is only known once the camera has been opened at least once
+            if (getParent() instanceof RCTCameraView) {
+                ((RCTCameraView) getParent()).postLayoutViewFinder();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            releaseCamera();
+        }
+    }
+
+    // must be called on the camera thread, applies staged parameters the HAL only accepts while preview is stopped
+    private void restartPreview(int type) {
+        if (_lease == null || _surfaceTexture == null || _lease.type != type || !_lease.isPreviewOwner()) {
+            RCTCamera.getInstance().commitParameters(type);
+            return;
+        }
+        try {
+            _lease.stopPreview();
+            RCTCamera.getInstance().commitParameters(type);
+            // preview buffers are sized for the new preview size
+            _lease.startPreview(_surfaceTexture);
+            if (getParent() instanceof RCTCameraView) {
+                ((RCTCameraView) getParent()).postLayoutViewFinder();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            releaseCamera();
+        }
+    }
+
+    // must be called on the camera thread
+    private void releaseCamera() {
+        try {
+            if (_lease != null) {
+                // the camera stays open for the keep-alive, or for another view that took the preview over
+                _lease.stopPreview();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (_lease != null) {
+                _lease.release();
             }
+            _lease = null;
+            _state = STATE_CLOSED;
         }
     }
 }
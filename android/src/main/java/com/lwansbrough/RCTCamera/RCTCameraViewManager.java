@@ -1,6 +1,8 @@
 package com.lwansbrough.RCTCamera;
 
 import android.support.annotation.Nullable;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.uimanager.*;
 import com.facebook.react.uimanager.annotations.ReactProp;
 
@@ -24,7 +26,27 @@ public class RCTCameraViewManager extends ViewGroupManager<RCTCameraView> {
 
     @ReactProp(name = "captureMode")
     public void setCaptureMode(RCTCameraView view, int captureMode) {
-        // TODO - implement video mode
+        view.setCaptureMode(captureMode);
+        RCTCameraPreRollRecorder.getInstance().setEnabled(captureMode == RCTCameraModule.RCT_CAMERA_CAPTURE_MODE_PRE_ROLL);
+    }
+
+    @ReactProp(name = "preRoll")
+    public void setPreRoll(RCTCameraView view, @Nullable ReadableMap preRoll) {
+        int seconds = null != preRoll && preRoll.hasKey("seconds") ? preRoll.getInt("seconds") : 0;
+        int maxBytes = null != preRoll && preRoll.hasKey("maxBytes") ? preRoll.getInt("maxBytes") : 0;
+        RCTCameraPreRollRecorder.getInstance().setLimits(seconds, maxBytes);
+    }
+
+    @ReactProp(name = "previewSize")
+    public void setPreviewSize(RCTCameraView view, @Nullable ReadableMap previewSize) {
+        String policy = null != previewSize && previewSize.hasKey("policy") ? previewSize.getString("policy") : null;
+        double maxMegapixels = null != previewSize && previewSize.hasKey("maxMegapixels") ? previewSize.getDouble("maxMegapixels") : 0;
+        view.setPreviewSizePolicy(RCTCameraPreviewSizePolicy.parsePolicy(policy), maxMegapixels);
+    }
+
+    @ReactProp(name = "keepAlive", defaultInt = RCTCamera.DEFAULT_KEEP_ALIVE)
+    public void setKeepAlive(RCTCameraView view, int keepAlive) {
+        RCTCamera.getInstance().setKeepAlive(keepAlive);
     }
 
     @ReactProp(name = "captureTarget")
@@ -59,6 +81,22 @@ public class RCTCameraViewManager extends ViewGroupManager<RCTCameraView> {
 
     @ReactProp(name = "captureAudio")
     public void setCaptureAudio(RCTCameraView view, boolean captureAudio) {
-        // TODO - implement video mode
+        // used by video captures that don't specify audio themselves
+        RCTCamera.getInstance().setCaptureAudio(captureAudio);
+    }
+
+    @ReactProp(name = "barCodeTypes")
+    public void setBarCodeTypes(RCTCameraView view, @Nullable ReadableArray barCodeTypes) {
+        RCTCameraBarCodeScanner.getInstance().setBarCodeTypes(barCodeTypes);
+    }
+
+    @ReactProp(name = "barCodeRegion")
+    public void setBarCodeRegion(RCTCameraView view, @Nullable ReadableMap barCodeRegion) {
+        RCTCameraBarCodeScanner.getInstance().setRegion(barCodeRegion);
+    }
+
+    @ReactProp(name = "barCodeDedupeWindow", defaultInt = 1000)
+    public void setBarCodeDedupeWindow(RCTCameraView view, int barCodeDedupeWindow) {
+        RCTCameraBarCodeScanner.getInstance().setDedupeWindow(barCodeDedupeWindow);
     }
 }
@@ -11,57 +11,161 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.view.Surface;
 
-import com.facebook.react.bridge.ReactApplicationContext;
+import java.util.ArrayList;
+import java.util.List;
 
 interface RCTSensorOrientationListener {
     void orientationEvent();
 }
 
+/**
+ * Shared device orientation service.
+ *
+ * Samples the accelerometer at a low rate while at least one user holds it and the host activity is
+ * resumed. Readings are low-pass filtered, and the orientation only flips once the device is clearly past
+ * the boundary between two orientations, so it doesn't jitter around 45 degrees. The result is published
+ * as a volatile snapshot: captures read it without waiting for a sensor event.
+ */
 public class RCTSensorOrientationChecker {
 
-    int mOrientation = 0;
-    private SensorEventListener mSensorEventListener;
-    private SensorManager mSensorManager;
-    private RCTSensorOrientationListener mListener = null;
+    // weight of the previous gravity estimate in the low-pass filter
+    private static final float FILTER_ALPHA = 0.8f;
+    // degrees past the 45 degree boundary before switching orientation
+    private static final float HYSTERESIS = 10;
+    // below this much gravity in the screen plane the device lies flat and keeps its orientation
+    private static final float MIN_TILT = 3;
+
+    private static RCTSensorOrientationChecker ourInstance;
+
+    private final SensorEventListener mSensorEventListener;
+    private final SensorManager mSensorManager;
+    private final List<RCTSensorOrientationListener> mListeners = new ArrayList<>();
+    private final float[] mGravity = new float[2];
+    private volatile int mOrientation = Surface.ROTATION_0;
+    private volatile boolean mValid = false;
+    private int mUsers = 0;
+    private boolean mHostActive = true;
+    private boolean mRegistered = false;
+    private boolean mFiltering = false;
+
+    public static RCTSensorOrientationChecker getInstance() {
+        return ourInstance;
+    }
 
-    public RCTSensorOrientationChecker( ReactApplicationContext reactContext) {
-        mSensorEventListener = new Listener();
-        mSensorManager = (SensorManager) reactContext.getSystemService(Context.SENSOR_SERVICE);
+    public static synchronized void createInstance(Context context) {
+        if (null == ourInstance) {
+            ourInstance = new RCTSensorOrientationChecker(context.getApplicationContext());
+        }
+    }
 
+    private RCTSensorOrientationChecker(Context context) {
+        mSensorEventListener = new Listener();
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
     }
 
     /**
      * Call on activity onResume()
      */
-    public void onResume() {
-        mSensorManager.registerListener(mSensorEventListener, mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), SensorManager.SENSOR_DELAY_NORMAL);
+    public synchronized void onResume() {
+        mHostActive = true;
+        updateRegistration();
     }
 
     /**
      * Call on activity onPause()
      */
-    public void onPause() {
-        mSensorManager.unregisterListener(mSensorEventListener);
+    public synchronized void onPause() {
+        mHostActive = false;
+        updateRegistration();
+    }
+
+    /**
+     * Start keeping the orientation up to date on behalf of a user, e.g. a visible camera view.
+     */
+    public synchronized void acquire() {
+        mUsers++;
+        updateRegistration();
+    }
+
+    public synchronized void release() {
+        mUsers = Math.max(0, mUsers - 1);
+        updateRegistration();
+    }
+
+    /**
+     * Whether getOrientation() reflects a recent sensor reading.
+     */
+    public boolean hasOrientation() {
+        return mValid;
+    }
+
+    public int getOrientation() {
+        return mOrientation;
+    }
+
+    /**
+     * Call the listener with the current orientation, right away if it is known, after the next sensor
+     * reading otherwise. Any number of listeners may be waiting at the same time. While the host is paused
+     * there won't be any reading, the last known orientation is used instead.
+     */
+    public void requestOrientation(RCTSensorOrientationListener listener) {
+        synchronized (this) {
+            if (!mValid && mHostActive) {
+                mListeners.add(listener);
+                // hold the sensor until the reading has been delivered
+                mUsers++;
+                updateRegistration();
+                return;
+            }
+        }
+        listener.orientationEvent();
+    }
+
+    private void updateRegistration() {
+        boolean register = mUsers > 0 && mHostActive;
+        if (register == mRegistered) {
+            return;
+        }
+        mRegistered = register;
+        if (register) {
+            mFiltering = false;
+            mSensorManager.registerListener(mSensorEventListener, mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), SensorManager.SENSOR_DELAY_NORMAL);
+        } else {
+            mSensorManager.unregisterListener(mSensorEventListener);
+            // the last reading goes stale from now on
+            mValid = false;
+        }
     }
 
     private class Listener implements SensorEventListener {
 
         @Override
         public void onSensorChanged(SensorEvent event) {
-            float x = event.values[0];
-            float y = event.values[1];
-
-            if (x<5 && x>-5 && y > 5)
-                mOrientation = Surface.ROTATION_0; // portrait
-            else if (x<-5 && y<5 && y>-5)
-                mOrientation = Surface.ROTATION_270; // right
-            else if (x<5 && x>-5 && y<-5)
-                mOrientation = Surface.ROTATION_180; // upside down
-            else if (x>5 && y<5 && y>-5)
-                mOrientation = Surface.ROTATION_90; // left
-
-            if (mListener != null) {
-                mListener.orientationEvent();
+            List<RCTSensorOrientationListener> listeners;
+            synchronized (RCTSensorOrientationChecker.this) {
+                // the first reading after registering may be far from the stale orientation, take it as is
+                boolean first = !mFiltering;
+                if (first) {
+                    mGravity[0] = event.values[0];
+                    mGravity[1] = event.values[1];
+                    mFiltering = true;
+                } else {
+                    mGravity[0] = FILTER_ALPHA * mGravity[0] + (1 - FILTER_ALPHA) * event.values[0];
+                    mGravity[1] = FILTER_ALPHA * mGravity[1] + (1 - FILTER_ALPHA) * event.values[1];
+                }
+                mOrientation = computeOrientation(mGravity[0], mGravity[1], mOrientation, first ? 0 : HYSTERESIS);
+                mValid = true;
+
+                if (mListeners.isEmpty()) {
+                    return;
+                }
+                listeners = new ArrayList<>(mListeners);
+                mUsers -= mListeners.size();
+                mListeners.clear();
+                updateRegistration();
+            }
+            for (RCTSensorOrientationListener listener : listeners) {
+                listener.orientationEvent();
             }
         }
 
@@ -71,15 +175,21 @@ public class RCTSensorOrientationChecker {
         }
     }
 
-    public int getOrientation() {
-        return mOrientation;
-    }
-
-    public void registerOrientationListener(RCTSensorOrientationListener listener) {
-        this.mListener = listener;
-    }
-
-    public void unregisterOrientationListener() {
-        mListener = null;
+    /**
+     * Surface rotation for the given gravity in the screen plane, keeping the current one near boundaries.
+     */
+    static int computeOrientation(float x, float y, int current, float hysteresis) {
+        if (x * x + y * y < MIN_TILT * MIN_TILT) {
+            return current;
+        }
+        // 0 when upright, 90 when turned left (ROTATION_90), 180 upside down, 270 turned right
+        double angle = (Math.toDegrees(Math.atan2(x, y)) + 360) % 360;
+        int candidate = (int) Math.round(angle / 90) % 4;
+        if (candidate == current) {
+            return current;
+        }
+        double distance = Math.abs(angle - candidate * 90);
+        distance = Math.min(distance, 360 - distance);
+        return distance <= 45 - hysteresis ? candidate : current;
     }
 }
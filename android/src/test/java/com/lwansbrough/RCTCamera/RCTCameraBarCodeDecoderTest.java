@@ -0,0 +1,116 @@
+package com.lwansbrough.RCTCamera;
+
+import com.google.zxing.BarcodeFormat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decoding of 320x240 NV21 frames, gzipped next to this class. The codes were rendered with zxing's writers
+ * onto a lighting gradient: a QR code at 30,60 to 150,180, a Code 128 running top to bottom at 200,20 to
+ * 260,220, and the gradient alone.
+ */
+public class RCTCameraBarCodeDecoderTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    @Test
+    public void decodesQrCode() throws IOException {
+        RCTCameraBarCodeDecoder decoder = decoder(BarcodeFormat.QR_CODE);
+        RCTCameraBarCodeDecoder.Result result = decoder.decode(frame("qr"), WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+        assertNotNull(result);
+        assertEquals(BarcodeFormat.QR_CODE, result.format);
+        assertEquals("https://github.com/lwansbrough/react-native-camera", result.text);
+        assertWithin(result, 30, 60, 150, 180);
+    }
+
+    @Test
+    public void decodesOneDimensionalCodeRotated() throws IOException {
+        RCTCameraBarCodeDecoder decoder = decoder(BarcodeFormat.CODE_128);
+        RCTCameraBarCodeDecoder.Result result = decoder.decode(frame("code128-vertical"), WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT);
+        assertNotNull(result);
+        assertEquals(BarcodeFormat.CODE_128, result.format);
+        assertEquals("RCTCAMERA-128", result.text);
+        // mapped back from the rotated region into frame pixels
+        assertWithin(result, 200, 20, 260, 220);
+        assertTrue(result.height > result.width);
+    }
+
+    @Test
+    public void decodesOneDimensionalCodeRotatedInRegion() throws IOException {
+        RCTCameraBarCodeDecoder decoder = decoder(BarcodeFormat.CODE_128);
+        RCTCameraBarCodeDecoder.Result result = decoder.decode(frame("code128-vertical"), WIDTH, HEIGHT, 180, 0, 100, HEIGHT);
+        assertNotNull(result);
+        assertEquals("RCTCAMERA-128", result.text);
+        assertWithin(result, 200, 20, 260, 220);
+    }
+
+    @Test
+    public void skipsRotatedRetryWithoutOneDimensionalFormats() throws IOException {
+        RCTCameraBarCodeDecoder decoder = decoder(BarcodeFormat.QR_CODE);
+        assertNull(decoder.decode(frame("code128-vertical"), WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void regionExcludingCodeFindsNothing() throws IOException {
+        RCTCameraBarCodeDecoder decoder = decoder(BarcodeFormat.QR_CODE);
+        byte[] frame = frame("qr");
+        assertNull(decoder.decode(frame, WIDTH, HEIGHT, 160, 0, 160, HEIGHT));
+        RCTCameraBarCodeDecoder.Result result = decoder.decode(frame, WIDTH, HEIGHT, 10, 40, 160, 160);
+        assertNotNull(result);
+        assertWithin(result, 30, 60, 150, 180);
+    }
+
+    @Test
+    public void frameWithoutCode() throws IOException {
+        RCTCameraBarCodeDecoder decoder = decoder(BarcodeFormat.QR_CODE, BarcodeFormat.CODE_128, BarcodeFormat.EAN_13);
+        assertNull(decoder.decode(frame("blank"), WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void disabledWithoutFormats() throws IOException {
+        RCTCameraBarCodeDecoder decoder = new RCTCameraBarCodeDecoder();
+        assertNull(decoder.decode(frame("qr"), WIDTH, HEIGHT, 0, 0, WIDTH, HEIGHT));
+    }
+
+    private static RCTCameraBarCodeDecoder decoder(BarcodeFormat format, BarcodeFormat... formats) {
+        RCTCameraBarCodeDecoder decoder = new RCTCameraBarCodeDecoder();
+        decoder.setFormats(EnumSet.of(format, formats));
+        return decoder;
+    }
+
+    private static byte[] frame(String name) throws IOException {
+        InputStream in = new GZIPInputStream(RCTCameraBarCodeDecoderTest.class.getResourceAsStream(
+                name + "-" + WIDTH + "x" + HEIGHT + ".nv21.gz"));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+            byte[] frame = out.toByteArray();
+            assertEquals(WIDTH * HEIGHT * 3 / 2, frame.length);
+            return frame;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void assertWithin(RCTCameraBarCodeDecoder.Result result, int left, int top, int right, int bottom) {
+        String bounds = result.left + "," + result.top + " " + result.width + "x" + result.height;
+        assertTrue(bounds, result.left >= left && result.top >= top);
+        assertTrue(bounds, result.left + result.width <= right && result.top + result.height <= bottom);
+        assertTrue(bounds, result.width > 0 || result.height > 0);
+    }
+}
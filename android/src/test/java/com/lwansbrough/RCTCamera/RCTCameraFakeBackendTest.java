@@ -0,0 +1,229 @@
+package com.lwansbrough.RCTCamera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The fake camera driven on the JVM, with callbacks run directly on its sensor thread.
+ */
+public class RCTCameraFakeBackendTest {
+    private static final long TIMEOUT_MS = 2000;
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private RCTCameraFakeBackend _backend;
+    private RCTCameraBackend.Device _device;
+
+    @Before
+    public void setUp() {
+        _backend = new RCTCameraFakeBackend(DIRECT).setFrameInterval(1).setPictureLatency(0);
+        _device = _backend.open(0);
+    }
+
+    @After
+    public void tearDown() {
+        _device.release();
+    }
+
+    @Test
+    public void cameraInfo() {
+        assertEquals(2, _backend.getNumberOfCameras());
+        RCTCameraBackend.CameraInfo info = new RCTCameraBackend.CameraInfo();
+        _backend.getCameraInfo(1, info);
+        assertEquals(RCTCameraBackend.CAMERA_FACING_FRONT, info.facing);
+        assertEquals(270, info.orientation);
+    }
+
+    @Test
+    public void setsSupportedParameters() {
+        RCTCameraParameters parameters = new RCTCameraParameters(_device);
+        assertSize(1280, 720, parameters.getPreviewSize());
+
+        _device.setParameters("preview-size=320x240;picture-size=640x480;rotation=90");
+        parameters = new RCTCameraParameters(_device);
+        assertSize(320, 240, parameters.getPreviewSize());
+        assertSize(640, 480, parameters.getPictureSize());
+        assertEquals("90", parameters.get(RCTCameraParameters.KEY_ROTATION));
+    }
+
+    @Test
+    public void rejectsUnsupportedSizes() {
+        String before = _device.getParameters();
+        try {
+            _device.setParameters("preview-size=1234x567");
+            fail("unsupported preview size accepted");
+        } catch (RuntimeException e) {
+            // like Camera1
+        }
+        try {
+            _device.setParameters("preview-size=320x240;picture-size=100x100");
+            fail("unsupported picture size accepted");
+        } catch (RuntimeException e) {
+            // the whole change is dropped
+        }
+        assertEquals(before, _device.getParameters());
+    }
+
+    @Test
+    public void fillsFrames() {
+        byte[] frame = new byte[4 * 2 * 3 / 2];
+        RCTCameraFakeBackend.fillFrame(frame, 4, 2, 3);
+        assertArrayEquals(new byte[]{6, 7, 8, 9, 7, 8, 9, 10, (byte) 128, (byte) 128, (byte) 128, (byte) 128}, frame);
+    }
+
+    @Test
+    public void deliversFramesIntoQueuedBuffers() throws InterruptedException {
+        _device.setParameters("preview-size=320x240");
+        int length = 320 * 240 * 3 / 2;
+        byte[] first = new byte[length];
+        byte[] second = new byte[length];
+        FrameQueue frames = new FrameQueue();
+        _device.setPreviewCallbackWithBuffer(frames);
+        _device.addCallbackBuffer(first);
+        _device.addCallbackBuffer(second);
+        _device.startPreview();
+
+        byte[] data = frames.next();
+        assertSame(first, data);
+        assertFrame(data, 320, 240);
+        byte[] next = frames.next();
+        assertSame(second, next);
+        assertFrame(next, 320, 240);
+        assertTrue("consecutive frames differ", data[0] != next[0]);
+
+        // frames without a queued buffer are dropped, until one is handed back
+        assertNull(frames.poll(50));
+        _device.addCallbackBuffer(first);
+        assertSame(first, frames.next());
+        _device.stopPreview();
+    }
+
+    @Test
+    public void deliversNullForSmallBuffer() throws InterruptedException {
+        FrameQueue frames = new FrameQueue();
+        _device.setPreviewCallbackWithBuffer(frames);
+        _device.addCallbackBuffer(new byte[16]);
+        _device.startPreview();
+        assertSame(FrameQueue.NO_DATA, frames.next());
+        _device.stopPreview();
+    }
+
+    @Test
+    public void takesPictureOfPictureSize() throws InterruptedException {
+        _device.setParameters("picture-size=640x480");
+        byte[] jpeg = takePicture();
+        assertEquals(0xd8, jpeg[1] & 0xff);
+        assertEquals(0xd9, jpeg[jpeg.length - 1] & 0xff);
+        int sof = find(jpeg, 0xc0);
+        assertTrue(sof > 0);
+        assertEquals(480, (jpeg[sof + 5] & 0xff) << 8 | jpeg[sof + 6] & 0xff);
+        assertEquals(640, (jpeg[sof + 7] & 0xff) << 8 | jpeg[sof + 8] & 0xff);
+        // no Exif without rotation
+        assertEquals(-1, find(jpeg, 0xe1));
+        // padded to the configured bytes per pixel
+        assertTrue(jpeg.length >= 640 * 480 / 8);
+    }
+
+    @Test
+    public void tagsPictureWithExifOrientation() throws InterruptedException {
+        int[] rotations = {90, 180, 270};
+        int[] orientations = {6, 3, 8};
+        for (int i = 0; i < rotations.length; i++) {
+            _device.setParameters("picture-size=640x480;rotation=" + rotations[i]);
+            assertEquals(orientations[i], exifOrientation(takePicture()));
+        }
+    }
+
+    private byte[] takePicture() throws InterruptedException {
+        final BlockingQueue<byte[]> pictures = new LinkedBlockingQueue<>();
+        _device.takePicture(new RCTCameraBackend.PictureCallback() {
+            @Override
+            public void onPictureTaken(byte[] jpeg, RCTCameraBackend.Device device) {
+                pictures.add(jpeg);
+            }
+        });
+        byte[] jpeg = pictures.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        assertNotNull("no picture taken", jpeg);
+        return jpeg;
+    }
+
+    // the frame of some number, as the frame counter also advances for dropped frames
+    private static void assertFrame(byte[] data, int width, int height) {
+        byte[] expected = new byte[width * height * 3 / 2];
+        RCTCameraFakeBackend.fillFrame(expected, width, height, (data[0] & 0xff) / 2);
+        assertArrayEquals(expected, Arrays.copyOf(data, expected.length));
+    }
+
+    private static void assertSize(int width, int height, RCTCameraCapabilities.Size size) {
+        assertEquals(width + "x" + height, size.width + "x" + size.height);
+    }
+
+    // offset of the first segment with the given marker, walking the segments from SOI
+    private static int find(byte[] jpeg, int marker) {
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xff) == 0xff) {
+            int type = jpeg[offset + 1] & 0xff;
+            if (type == marker) {
+                return offset;
+            }
+            if (type == 0xda) {
+                break;
+            }
+            offset += 2 + ((jpeg[offset + 2] & 0xff) << 8 | jpeg[offset + 3] & 0xff);
+        }
+        return -1;
+    }
+
+    // Orientation of a big endian Exif block with the Orientation entry first, as the HAL tags it
+    private static int exifOrientation(byte[] jpeg) {
+        int app1 = find(jpeg, 0xe1);
+        assertTrue("no Exif segment", app1 > 0);
+        assertEquals("Exif", new String(jpeg, app1 + 4, 4));
+        int tiff = app1 + 10;
+        assertEquals('M', jpeg[tiff]);
+        int entry = tiff + 10;
+        assertEquals(0x0112, (jpeg[entry] & 0xff) << 8 | jpeg[entry + 1] & 0xff);
+        return (jpeg[entry + 8] & 0xff) << 8 | jpeg[entry + 9] & 0xff;
+    }
+
+    private static class FrameQueue implements RCTCameraBackend.PreviewCallback {
+        // stands in for the null a too small buffer is delivered as
+        public static final byte[] NO_DATA = new byte[0];
+
+        private final BlockingQueue<byte[]> _frames = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onPreviewFrame(byte[] data, RCTCameraBackend.Device device) {
+            _frames.add(null != data ? data : NO_DATA);
+        }
+
+        public byte[] next() throws InterruptedException {
+            byte[] data = poll(TIMEOUT_MS);
+            assertNotNull("no frame delivered", data);
+            return data;
+        }
+
+        public byte[] poll(long timeoutMs) throws InterruptedException {
+            return _frames.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+}
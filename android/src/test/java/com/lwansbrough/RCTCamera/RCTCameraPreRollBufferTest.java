@@ -0,0 +1,188 @@
+package com.lwansbrough.RCTCamera;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Eviction and flushing of the pre-roll buffer, driven with synthetic samples.
+ */
+public class RCTCameraPreRollBufferTest {
+    private static final long NO_LIMIT = Long.MAX_VALUE;
+
+    @Test
+    public void skipsUntilKeyframe() {
+        RCTCameraPreRollBuffer buffer = new RCTCameraPreRollBuffer(NO_LIMIT, NO_LIMIT);
+        assertFalse(buffer.add(sample(10, 1), 0, false));
+        assertFalse(buffer.add(sample(10, 2), 10, false));
+        assertTrue(buffer.add(sample(10, 3), 20, true));
+        assertTrue(buffer.add(sample(10, 4), 30, false));
+        assertEquals(2, buffer.getSkippedCount());
+        assertEquals(2, buffer.getSampleCount());
+        assertEquals(1, buffer.getKeyframeCount());
+    }
+
+    @Test
+    public void drainWritesOldestFirstAndEmpties() {
+        RCTCameraPreRollBuffer buffer = new RCTCameraPreRollBuffer(NO_LIMIT, NO_LIMIT);
+        buffer.add(sample(10, 1), 0, true);
+        buffer.add(sample(20, 2), 10, false);
+        buffer.add(sample(30, 3), 20, false);
+        assertEquals(60, buffer.getBytes());
+        assertEquals(20, buffer.getDurationUs());
+
+        RecordingSink sink = new RecordingSink();
+        assertEquals(3, buffer.drainTo(sink));
+        assertEquals(Arrays.asList(0L, 10L, 20L), sink.times);
+        assertEquals(Arrays.asList(true, false, false), sink.keyframes);
+        assertArrayEquals(fill(20, 2), sink.data.get(1));
+
+        assertEquals(0, buffer.getSampleCount());
+        assertEquals(0, buffer.getBytes());
+        assertEquals(0, buffer.getKeyframeCount());
+        assertEquals(0, buffer.getDurationUs());
+    }
+
+    @Test
+    public void evictsGroupsCoveredWithout() {
+        RCTCameraPreRollBuffer buffer = new RCTCameraPreRollBuffer(NO_LIMIT, 100);
+        // a keyframe every 50us, a sample every 10us
+        for (long time = 0; time < 150; time += 10) {
+            buffer.add(sample(10, 1), time, time % 50 == 0);
+        }
+        assertEquals(0, buffer.getEvictedCount());
+        assertEquals(140, buffer.getDurationUs());
+
+        // the groups from 50us on now cover 100us by themselves
+        buffer.add(sample(10, 1), 150, true);
+        assertEquals(5, buffer.getEvictedCount());
+        assertEquals(11, buffer.getSampleCount());
+        assertEquals(3, buffer.getKeyframeCount());
+        assertEquals(100, buffer.getDurationUs());
+
+        RecordingSink sink = new RecordingSink();
+        buffer.drainTo(sink);
+        assertEquals(50L, (long) sink.times.get(0));
+        assertTrue(sink.keyframes.get(0));
+    }
+
+    @Test
+    public void keepsGroupWhileNeededForDuration() {
+        RCTCameraPreRollBuffer buffer = new RCTCameraPreRollBuffer(NO_LIMIT, 100);
+        // a single group never gets evicted for its duration, there would be nothing to start from
+        for (long time = 0; time <= 500; time += 10) {
+            buffer.add(sample(10, 1), time, time == 0);
+        }
+        assertEquals(0, buffer.getEvictedCount());
+        assertEquals(500, buffer.getDurationUs());
+    }
+
+    @Test
+    public void evictsGroupsOverBudget() {
+        RCTCameraPreRollBuffer buffer = new RCTCameraPreRollBuffer(350, NO_LIMIT);
+        buffer.add(sample(100, 1), 0, true);
+        buffer.add(sample(100, 2), 10, false);
+        buffer.add(sample(100, 3), 20, true);
+        assertEquals(0, buffer.getEvictedCount());
+
+        buffer.add(sample(100, 4), 30, false);
+        assertEquals(2, buffer.getEvictedCount());
+        assertEquals(200, buffer.getBytes());
+        assertEquals(1, buffer.getKeyframeCount());
+
+        RecordingSink sink = new RecordingSink();
+        buffer.drainTo(sink);
+        assertEquals(Arrays.asList(20L, 30L), sink.times);
+        assertArrayEquals(fill(100, 3), sink.data.get(0));
+        assertArrayEquals(fill(100, 4), sink.data.get(1));
+    }
+
+    @Test
+    public void dropsGroupLargerThanBudget() {
+        RCTCameraPreRollBuffer buffer = new RCTCameraPreRollBuffer(250, NO_LIMIT);
+        buffer.add(sample(100, 1), 0, true);
+        buffer.add(sample(100, 2), 10, false);
+        buffer.add(sample(100, 3), 20, false);
+        assertEquals(3, buffer.getEvictedCount());
+        assertEquals(0, buffer.getSampleCount());
+        assertEquals(0, buffer.getBytes());
+
+        // the rest of the dropped group is useless without its keyframe
+        assertFalse(buffer.add(sample(100, 4), 30, false));
+        assertTrue(buffer.add(sample(100, 5), 40, true));
+        assertEquals(1, buffer.getSkippedCount());
+    }
+
+    @Test
+    public void setLimitsTrims() {
+        RCTCameraPreRollBuffer buffer = new RCTCameraPreRollBuffer(NO_LIMIT, NO_LIMIT);
+        buffer.add(sample(100, 1), 0, true);
+        buffer.add(sample(100, 2), 10, true);
+        buffer.add(sample(100, 3), 20, true);
+        buffer.setLimits(150, NO_LIMIT);
+        assertEquals(2, buffer.getEvictedCount());
+        assertEquals(1, buffer.getSampleCount());
+        assertEquals(100, buffer.getBytes());
+    }
+
+    @Test
+    public void reusedSamplesKeepTheirContent() {
+        RCTCameraPreRollBuffer buffer = new RCTCameraPreRollBuffer(NO_LIMIT, 20);
+        // evicted samples go back to the pool, later ones of other sizes are copied into their arrays
+        for (int i = 0; i < 40; i++) {
+            buffer.add(sample(40 + i % 7 * 10, i), i * 10, true);
+        }
+        RecordingSink sink = new RecordingSink();
+        int count = buffer.drainTo(sink);
+        assertEquals(3, count);
+        for (int i = 0; i < count; i++) {
+            int index = 37 + i;
+            assertEquals(index * 10L, (long) sink.times.get(i));
+            assertArrayEquals(fill(40 + index % 7 * 10, index), sink.data.get(i));
+        }
+    }
+
+    @Test
+    public void clearEmpties() {
+        RCTCameraPreRollBuffer buffer = new RCTCameraPreRollBuffer(NO_LIMIT, NO_LIMIT);
+        buffer.add(sample(10, 1), 0, true);
+        buffer.add(sample(10, 2), 10, false);
+        buffer.clear();
+        assertEquals(0, buffer.getSampleCount());
+        assertEquals(0, buffer.getBytes());
+        assertEquals(0, buffer.drainTo(new RecordingSink()));
+        assertFalse(buffer.add(sample(10, 3), 20, false));
+    }
+
+    private static ByteBuffer sample(int length, int value) {
+        return ByteBuffer.wrap(fill(length, value));
+    }
+
+    private static byte[] fill(int length, int value) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+
+    // copies each sample out, the buffer reuses its arrays once drained
+    private static class RecordingSink implements RCTCameraPreRollBuffer.Sink {
+        public final List<byte[]> data = new ArrayList<>();
+        public final List<Long> times = new ArrayList<>();
+        public final List<Boolean> keyframes = new ArrayList<>();
+
+        @Override
+        public void write(byte[] data, int length, long presentationTimeUs, boolean keyframe) {
+            this.data.add(Arrays.copyOf(data, length));
+            times.add(presentationTimeUs);
+            keyframes.add(keyframe);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.lwansbrough.RCTCamera;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Preview size selection against the preview size lists of real devices.
+ */
+public class RCTCameraPreviewSizePolicyTest {
+    private static final RCTCameraCapabilities.Size[] NEXUS_5 = sizes("1920x1080,1280x960,1280x720,1024x768,"
+            + "800x600,800x480,720x480,640x480,352x288,320x240,176x144");
+    private static final RCTCameraCapabilities.Size[] GALAXY_S5 = sizes("1920x1080,1440x1080,1280x720,1056x864,"
+            + "960x720,800x480,720x480,640x480,352x288,320x240,176x144");
+
+    private static final int MAX = RCTCameraPreviewSizePolicy.POLICY_MAX;
+    private static final int MATCH_VIEW = RCTCameraPreviewSizePolicy.POLICY_MATCH_VIEW;
+    private static final int MATCH_CAPTURE_ASPECT = RCTCameraPreviewSizePolicy.POLICY_MATCH_CAPTURE_ASPECT;
+
+    @Test
+    public void fillCoversBothAxes() {
+        assertSize("1920x1080", RCTCameraPreviewSizePolicy.select(NEXUS_5, MATCH_VIEW, 1200, 1000, true, 0, 0));
+    }
+
+    @Test
+    public void fitCoversOneAxis() {
+        assertSize("1280x960", RCTCameraPreviewSizePolicy.select(NEXUS_5, MATCH_VIEW, 1200, 1000, false, 0, 0));
+    }
+
+    @Test
+    public void smallViewGetsSmallPreview() {
+        assertSize("320x240", RCTCameraPreviewSizePolicy.select(NEXUS_5, MATCH_VIEW, 320, 240, true, 0, 0));
+        assertSize("640x480", RCTCameraPreviewSizePolicy.select(GALAXY_S5, MATCH_VIEW, 600, 450, true, 0, 0));
+    }
+
+    @Test
+    public void matchViewPrefersViewAspect() {
+        assertSize("1280x720", RCTCameraPreviewSizePolicy.select(GALAXY_S5, MATCH_VIEW, 1280, 720, false, 4f / 3, 0));
+    }
+
+    @Test
+    public void matchCaptureAspectPrefersCaptureAspect() {
+        assertSize("960x720", RCTCameraPreviewSizePolicy.select(GALAXY_S5, MATCH_CAPTURE_ASPECT, 1280, 720, false, 4f / 3, 0));
+    }
+
+    @Test
+    public void matchCaptureAspectWithoutCaptureAspectMatchesView() {
+        assertSize("1280x720", RCTCameraPreviewSizePolicy.select(GALAXY_S5, MATCH_CAPTURE_ASPECT, 1280, 720, false, 0, 0));
+    }
+
+    @Test
+    public void maxPicksLargest() {
+        assertSize("1920x1080", RCTCameraPreviewSizePolicy.select(NEXUS_5, MAX, 320, 240, true, 0, 0));
+    }
+
+    @Test
+    public void unknownViewPicksLargest() {
+        assertSize("1920x1080", RCTCameraPreviewSizePolicy.select(GALAXY_S5, MATCH_VIEW, 0, 0, true, 0, 0));
+    }
+
+    @Test
+    public void megapixelCapLimitsMax() {
+        assertSize("1280x960", RCTCameraPreviewSizePolicy.select(NEXUS_5, MAX, 0, 0, true, 0, 1280 * 960));
+        assertSize("1280x720", RCTCameraPreviewSizePolicy.select(GALAXY_S5, MAX, 0, 0, true, 0, 1280 * 960));
+    }
+
+    @Test
+    public void megapixelCapLimitsMatchView() {
+        // nothing under the cap covers the view, the best aspect ratio among the largest sizes left wins
+        assertSize("1280x720", RCTCameraPreviewSizePolicy.select(NEXUS_5, MATCH_VIEW, 1920, 1080, true, 0, 1280 * 960));
+    }
+
+    @Test
+    public void megapixelCapBelowEverySizePicksSmallest() {
+        assertSize("176x144", RCTCameraPreviewSizePolicy.select(NEXUS_5, MATCH_VIEW, 1920, 1080, true, 0, 100 * 100));
+    }
+
+    @Test
+    public void viewLargerThanEverySize() {
+        assertSize("1280x960", RCTCameraPreviewSizePolicy.select(NEXUS_5, MATCH_VIEW, 4000, 3000, true, 0, 0));
+        assertSize("1440x1080", RCTCameraPreviewSizePolicy.select(GALAXY_S5, MATCH_VIEW, 4000, 3000, true, 0, 0));
+        assertSize("1920x1080", RCTCameraPreviewSizePolicy.select(GALAXY_S5, MATCH_VIEW, 3840, 2160, true, 0, 0));
+    }
+
+    @Test
+    public void emptySizes() {
+        assertNull(RCTCameraPreviewSizePolicy.select(new RCTCameraCapabilities.Size[0], MATCH_VIEW, 1920, 1080, true, 0, 0));
+        assertNull(RCTCameraPreviewSizePolicy.select(new RCTCameraCapabilities.Size[0], MAX, 0, 0, true, 0, 1280 * 960));
+    }
+
+    @Test
+    public void parsePolicy() {
+        assertEquals(MAX, RCTCameraPreviewSizePolicy.parsePolicy("max"));
+        assertEquals(MATCH_CAPTURE_ASPECT, RCTCameraPreviewSizePolicy.parsePolicy("matchCaptureAspect"));
+        assertEquals(MATCH_VIEW, RCTCameraPreviewSizePolicy.parsePolicy("matchView"));
+        assertEquals(MATCH_VIEW, RCTCameraPreviewSizePolicy.parsePolicy(null));
+    }
+
+    @Test
+    public void sizeClass() {
+        assertEquals(RCTCameraPreviewSizePolicy.getSizeClass(1920, 1080), RCTCameraPreviewSizePolicy.getSizeClass(1900, 1090));
+        assertNotEquals(RCTCameraPreviewSizePolicy.getSizeClass(1920, 1080), RCTCameraPreviewSizePolicy.getSizeClass(1280, 720));
+        assertNotEquals(RCTCameraPreviewSizePolicy.getSizeClass(1920, 1080), RCTCameraPreviewSizePolicy.getSizeClass(1080, 1920));
+    }
+
+    // sorted by area, then aspect ratio, as in RCTCameraCapabilities
+    private static RCTCameraCapabilities.Size[] sizes(String serialized) {
+        String[] parts = serialized.split(",");
+        RCTCameraCapabilities.Size[] sizes = new RCTCameraCapabilities.Size[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            sizes[i] = RCTCameraParameters.parseSize(parts[i]);
+        }
+        Arrays.sort(sizes, new Comparator<RCTCameraCapabilities.Size>() {
+            @Override
+            public int compare(RCTCameraCapabilities.Size lhs, RCTCameraCapabilities.Size rhs) {
+                if (lhs.area != rhs.area) {
+                    return lhs.area < rhs.area ? -1 : 1;
+                }
+                return Float.compare(lhs.aspectRatio, rhs.aspectRatio);
+            }
+        });
+        return sizes;
+    }
+
+    private static void assertSize(String expected, RCTCameraCapabilities.Size size) {
+        assertEquals(expected, size.width + "x" + size.height);
+    }
+}
@@ -60,7 +60,9 @@ export default class Camera extends Component {
     CaptureQuality: CameraManager.CaptureQuality,
     Orientation: CameraManager.Orientation,
     FlashMode: CameraManager.FlashMode,
-    TorchMode: CameraManager.TorchMode
+    TorchMode: CameraManager.TorchMode,
+    MemoryDelivery: CameraManager.MemoryDelivery,
+    SharpnessOutput: CameraManager.SharpnessOutput
   };
 
   static propTypes = {
@@ -87,17 +89,34 @@ export default class Camera extends Component {
       PropTypes.string,
       PropTypes.number
     ]),
+    keepAlive: PropTypes.number,
     keepAwake: PropTypes.bool,
     onBarCodeRead: PropTypes.func,
+    onFirstFrame: PropTypes.func,
     onFocusChanged: PropTypes.func,
     onZoomChanged: PropTypes.func,
     mirrorImage: PropTypes.bool,
     barCodeTypes: PropTypes.array,
+    barCodeRegion: PropTypes.shape({
+      x: PropTypes.number,
+      y: PropTypes.number,
+      width: PropTypes.number,
+      height: PropTypes.number
+    }),
+    barCodeDedupeWindow: PropTypes.number,
     orientation: PropTypes.oneOfType([
       PropTypes.string,
       PropTypes.number
     ]),
     playSoundOnCapture: PropTypes.bool,
+    preRoll: PropTypes.shape({
+      seconds: PropTypes.number,
+      maxBytes: PropTypes.number
+    }),
+    previewSize: PropTypes.shape({
+      policy: PropTypes.oneOf(['max', 'matchView', 'matchCaptureAspect']),
+      maxMegapixels: PropTypes.number
+    }),
     torchMode: PropTypes.oneOfType([
       PropTypes.string,
       PropTypes.number
@@ -127,6 +146,23 @@ export default class Camera extends Component {
   static checkDeviceAuthorizationStatus = CameraManager.checkDeviceAuthorizationStatus;
   static checkVideoAuthorizationStatus = CameraManager.checkVideoAuthorizationStatus;
   static checkAudioAuthorizationStatus = CameraManager.checkAudioAuthorizationStatus;
+  static getCameraQueueStats = CameraManager.getCameraQueueStats;
+  static getParameterStats = CameraManager.getParameterStats;
+  static ready = CameraManager.ready;
+  static readCaptureBlob = CameraManager.readCaptureBlob;
+  static releaseCaptureBlob = CameraManager.releaseCaptureBlob;
+  static setCapturePipelineOptions = CameraManager.setCapturePipelineOptions;
+  static getCapturePipelineStats = CameraManager.getCapturePipelineStats;
+  static getMetrics = CameraManager.getMetrics;
+  static resetMetrics = CameraManager.resetMetrics;
+  static setMetricsInterval = CameraManager.setMetricsInterval;
+  static getBarCodeScannerStats = CameraManager.getBarCodeScannerStats;
+  static getPreRollStats = CameraManager.getPreRollStats;
+  static getLayoutStats = CameraManager.getLayoutStats;
+  static getCameraSwitchStats = CameraManager.getCameraSwitchStats;
+  static getCameraLeaseStats = CameraManager.getCameraLeaseStats;
+  static setCaptureStorageOptions = CameraManager.setCaptureStorageOptions;
+  static getCaptureStorageUsage = CameraManager.getCaptureStorageUsage;
 
   setNativeProps(props) {
     this.refs[CAMERA_REF].setNativeProps(props);
@@ -142,6 +178,7 @@ export default class Camera extends Component {
 
   async componentWillMount() {
     this.cameraBarCodeReadListener = NativeAppEventEmitter.addListener('CameraBarCodeRead', this._onBarCodeRead);
+    this.cameraFirstFrameListener = NativeAppEventEmitter.addListener('CameraFirstFrame', this._onFirstFrame);
 
     let { captureMode } = convertNativeProps({captureMode: this.props.captureMode})
     let hasVideoAndAudio = this.props.captureAudio && captureMode === Camera.constants.CaptureMode.video
@@ -155,6 +192,7 @@ export default class Camera extends Component {
 
   componentWillUnmount() {
     this.cameraBarCodeReadListener.remove();
+    this.cameraFirstFrameListener.remove();
 
     if (this.state.isRecording) {
       this.stopCapture();
@@ -172,6 +210,10 @@ export default class Camera extends Component {
     if (this.props.onBarCodeRead) this.props.onBarCodeRead(data)
   };
 
+  _onFirstFrame = (data) => {
+    if (this.props.onFirstFrame) this.props.onFirstFrame(data)
+  };
+
   capture(options) {
     const props = convertNativeProps(this.props);
     options = {
@@ -187,7 +229,7 @@ export default class Camera extends Component {
       ...options
     };
 
-    if (options.mode === Camera.constants.CaptureMode.video) {
+    if (options.mode === Camera.constants.CaptureMode.video || options.mode === Camera.constants.CaptureMode.preRoll) {
       options.totalSeconds = (options.totalSeconds > -1 ? options.totalSeconds : -1);
       options.preferredTimeScale = options.preferredTimeScale || 30;
       this.setState({ isRecording: true });
@@ -198,9 +240,10 @@ export default class Camera extends Component {
 
   stopCapture() {
     if (this.state.isRecording) {
-      CameraManager.stopCapture();
       this.setState({ isRecording: false });
+      return Promise.resolve(CameraManager.stopCapture());
     }
+    return Promise.resolve(false);
   }
 
   getFOV() {